@@ -1,6 +1,7 @@
 package org.ks.tool.manager;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Bundle;
 import android.text.method.LinkMovementMethod;
@@ -8,18 +9,34 @@ import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 
+import com.afollestad.materialdialogs.MaterialDialog;
+import com.squareup.picasso.Picasso;
+
 import org.ks.tool.manager.repo.Module;
 import org.ks.tool.manager.repo.RepoParser;
 import org.ks.tool.manager.util.NavUtil;
+import org.ks.tool.manager.util.ThumbnailCache;
 import org.ks.tool.manager.util.chrome.LinkTransformationMethod;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class DownloadDetailsFragment extends Fragment {
     private DownloadDetailsActivity mActivity;
+    // Screenshots whose thumbnails are only loaded once they are scrolled into view
+    private final Map<ImageView, String> mPendingThumbnails = new LinkedHashMap<>();
+    private final ViewTreeObserver.OnScrollChangedListener mThumbnailScrollListener = this::loadVisibleThumbnails;
+    private final ViewTreeObserver.OnGlobalLayoutListener mThumbnailLayoutListener = this::loadVisibleThumbnails;
+    private int mThumbnailHeight;
 
     @Override
     public void onAttach(@NonNull Context context) {
@@ -48,7 +65,7 @@ public class DownloadDetailsFragment extends Fragment {
         TextView description = view.findViewById(R.id.download_description);
         if (module.description != null) {
             if (module.descriptionIsHtml) {
-                description.setText(RepoParser.parseSimpleHtml(getActivity(), module.description, description));
+                description.setText(RepoParser.getDescriptionHtml(getActivity(), module, description));
                 description.setTransformationMethod(new LinkTransformationMethod(getActivity()));
                 description.setMovementMethod(LinkMovementMethod.getInstance());
             } else {
@@ -59,6 +76,29 @@ public class DownloadDetailsFragment extends Fragment {
             description.setVisibility(View.GONE);
         }
 
+        View screenshots = view.findViewById(R.id.download_screenshots);
+        if (!module.screenshots.isEmpty()) {
+            ViewGroup screenshotsContainer = view.findViewById(R.id.download_screenshots_container);
+            mThumbnailHeight = getResources().getDimensionPixelSize(R.dimen.screenshot_thumbnail_height);
+            int spacing = getResources().getDimensionPixelSize(R.dimen.screenshot_thumbnail_spacing);
+            for (final String url : module.screenshots) {
+                ImageView thumbnail = new ImageView(getActivity());
+                LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, mThumbnailHeight);
+                params.setMarginEnd(spacing);
+                thumbnail.setLayoutParams(params);
+                thumbnail.setAdjustViewBounds(true);
+                thumbnail.setScaleType(ImageView.ScaleType.FIT_CENTER);
+                thumbnail.setOnClickListener(v -> showScreenshot(url));
+                thumbnail.setImageResource(R.drawable.ic_no_image);
+                mPendingThumbnails.put(thumbnail, url);
+                screenshotsContainer.addView(thumbnail);
+            }
+            view.getViewTreeObserver().addOnScrollChangedListener(mThumbnailScrollListener);
+            view.getViewTreeObserver().addOnGlobalLayoutListener(mThumbnailLayoutListener);
+        } else {
+            screenshots.setVisibility(View.GONE);
+        }
+
         ViewGroup moreInfoContainer = view.findViewById(R.id.download_moreinfo_container);
         for (Pair<String, String> moreInfoEntry : module.moreInfo) {
             View moreInfoView = inflater.inflate(R.layout.download_moreinfo, moreInfoContainer, false);
@@ -79,4 +119,58 @@ public class DownloadDetailsFragment extends Fragment {
 
         return view;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void onDestroyView() {
+        View view = getView();
+        if (view != null)
+            removeThumbnailListeners(view);
+        mPendingThumbnails.clear();
+        super.onDestroyView();
+    }
+
+    /**
+     * Starts loading the thumbnails which are at least partly visible. Screenshots are
+     * only downloaded if they are actually looked at.
+     */
+    private void loadVisibleThumbnails() {
+        Rect visible = new Rect();
+        Iterator<Map.Entry<ImageView, String>> it = mPendingThumbnails.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ImageView, String> entry = it.next();
+            ImageView thumbnail = entry.getKey();
+            if (thumbnail.isAttachedToWindow() && thumbnail.getLocalVisibleRect(visible)) {
+                ThumbnailCache.load(thumbnail, entry.getValue(), mThumbnailHeight);
+                it.remove();
+            }
+        }
+
+        View view = getView();
+        if (mPendingThumbnails.isEmpty() && view != null)
+            removeThumbnailListeners(view);
+    }
+
+    private void removeThumbnailListeners(View view) {
+        view.getViewTreeObserver().removeOnScrollChangedListener(mThumbnailScrollListener);
+        view.getViewTreeObserver().removeOnGlobalLayoutListener(mThumbnailLayoutListener);
+    }
+
+    /**
+     * Shows a screenshot in full size. It has usually been downloaded for its thumbnail
+     * already and is read from Picasso's disk cache then.
+     */
+    private void showScreenshot(String url) {
+        ImageView image = new ImageView(getActivity());
+        image.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                getResources().getDisplayMetrics().heightPixels * 2 / 3));
+        image.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        // Decoded at the size of the view
+        Picasso.get().load(url).fit().centerInside().placeholder(R.drawable.ic_no_image).into(image);
+
+        new MaterialDialog.Builder(requireActivity())
+                .customView(image, false)
+                .positiveText(R.string.ok)
+                .dismissListener(dialog -> Picasso.get().cancelRequest(image))
+                .show();
+    }
+}
@@ -241,7 +241,7 @@ public class DownloadDetailsVersionsFragment extends ListFragment {
                 holder.txtChanges.setVisibility(View.VISIBLE);
 
                 if (item.changelogIsHtml) {
-                    holder.txtChanges.setText(RepoParser.parseSimpleHtml(getActivity(), item.changelog, holder.txtChanges));
+                    holder.txtChanges.setText(RepoParser.getChangelogHtml(getActivity(), item, holder.txtChanges));
                     holder.txtChanges.setTransformationMethod(new LinkTransformationMethod(getActivity()));
                     holder.txtChanges.setMovementMethod(LinkMovementMethod.getInstance());
                 } else {
@@ -9,9 +9,12 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.view.KeyEvent;
@@ -42,7 +45,9 @@ import org.ks.tool.manager.util.RepoLoader.RepoListener;
 import org.ks.tool.manager.util.ThemeUtil;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import se.emilsjolander.stickylistheaders.StickyListHeadersAdapter;
 import se.emilsjolander.stickylistheaders.StickyListHeadersListView;
@@ -50,6 +55,10 @@ import se.emilsjolander.stickylistheaders.StickyListHeadersListView;
 import static android.content.Context.MODE_PRIVATE;
 
 public class DownloadFragment extends Fragment implements RepoListener, ModuleListener, SharedPreferences.OnSharedPreferenceChangeListener {
+    // Rows per query, which are copied into memory at once
+    private static final int PAGE_SIZE = 50;
+    // Load the next page when the user scrolls closer than this to the end
+    private static final int PREFETCH_DISTANCE = 25;
     @SuppressLint("StaticFieldLeak")
     public static Activity sActivity;
     private SharedPreferences mPref;
@@ -90,7 +99,11 @@ public class DownloadFragment extends Fragment implements RepoListener, ModuleLi
         mRepoLoader = RepoLoader.getInstance();
         mModuleUtil = ModuleUtil.getInstance();
         mAdapter = new DownloadsAdapter(getActivity());
-        mAdapter.setFilterQueryProvider(constraint -> RepoDb.queryModuleOverview(mSortingOrder, constraint));
+        mAdapter.setFilterQueryProvider(constraint -> {
+            final int sortingOrder = mSortingOrder;
+            return new OverviewPage(RepoDb.queryModuleOverview(sortingOrder, constraint, null, PAGE_SIZE),
+                    sortingOrder, constraint);
+        });
         mSortingOrder = mPref.getInt("download_sorting_order",
                 RepoDb.SORT_STATUS);
 
@@ -167,6 +180,7 @@ public class DownloadFragment extends Fragment implements RepoListener, ModuleLi
                 if (mListView.getChildAt(0) != null) {
                     refreshLayout.setEnabled(mListView.getFirstVisiblePosition() == 0 && mListView.getChildAt(0).getTop() == 0);
                 }
+                mAdapter.loadMoreIfNeeded(firstVisibleItem + visibleItemCount);
             }
         });
 
@@ -286,7 +300,58 @@ public class DownloadFragment extends Fragment implements RepoListener, ModuleLi
         changed = true;
     }
 
+    /**
+     * A page of the module overview, which remembers the query so that it can be continued.
+     * It must be created on the thread that runs the query.
+     * <p>
+     * The rows are copied out of the database cursor, which is closed right away. Every
+     * page that has been scrolled through stays in the list, and this way it only keeps
+     * its few rows instead of a cursor window and its file descriptor.
+     */
+    private static class OverviewPage extends MatrixCursor {
+        private final int mSortingOrder;
+        private final CharSequence mFilterText;
+        // Where the next page starts, or null if this one is empty
+        private final RepoDb.OverviewKey mNextKey;
+
+        OverviewPage(Cursor cursor, int sortingOrder, CharSequence filterText) {
+            super(cursor.getColumnNames(), cursor.getCount());
+            mSortingOrder = sortingOrder;
+            mFilterText = filterText;
+            try {
+                Object[] row = new Object[cursor.getColumnCount()];
+                while (cursor.moveToNext()) {
+                    for (int i = 0; i < row.length; i++)
+                        row[i] = getValue(cursor, i);
+                    addRow(row);
+                }
+                mNextKey = cursor.moveToLast() ? new RepoDb.OverviewKey(cursor) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private static Object getValue(Cursor cursor, int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return cursor.getString(column);
+            }
+        }
+    }
+
     private class DownloadsAdapter extends CursorAdapter implements StickyListHeadersAdapter {
+        // The pages that are currently shown, the cursor of the adapter merges them
+        private final List<OverviewPage> mPages = new ArrayList<>();
+        private boolean mHasMorePages = false;
+        private boolean mLoadingPage = false;
         private final Context mContext;
         private final DateFormat mDateFormatter = DateFormat.getDateInstance(DateFormat.SHORT);
         private final LayoutInflater mInflater;
@@ -313,6 +378,55 @@ public class DownloadFragment extends Fragment implements RepoListener, ModuleLi
                     res.getString(R.string.download_section_older)};
         }
 
+        @Override
+        public void changeCursor(Cursor cursor) {
+            // The first page of a new query, closing the old cursor closes all previous pages
+            mPages.clear();
+            mLoadingPage = false;
+            if (cursor instanceof OverviewPage) {
+                mPages.add((OverviewPage) cursor);
+                mHasMorePages = cursor.getCount() >= PAGE_SIZE;
+            } else {
+                mHasMorePages = false;
+            }
+            super.changeCursor(cursor);
+        }
+
+        /**
+         * Loads the next page in the background if {@code position} is close to the end
+         * of the rows that have been loaded so far.
+         */
+        void loadMoreIfNeeded(int position) {
+            if (!mHasMorePages || mLoadingPage || position < getCount() - PREFETCH_DISTANCE)
+                return;
+
+            final OverviewPage first = mPages.get(0);
+            final RepoDb.OverviewKey after = mPages.get(mPages.size() - 1).mNextKey;
+            if (after == null)
+                return;
+
+            mLoadingPage = true;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+                final OverviewPage page = new OverviewPage(RepoDb.queryModuleOverview(
+                        first.mSortingOrder, first.mFilterText, after, PAGE_SIZE),
+                        first.mSortingOrder, first.mFilterText);
+
+                XposedApp.runOnUiThread(() -> {
+                    if (mPages.isEmpty() || mPages.get(0) != first) {
+                        // The list has been reloaded in the meantime
+                        page.close();
+                        return;
+                    }
+
+                    mPages.add(page);
+                    mHasMorePages = page.getCount() >= PAGE_SIZE;
+                    mLoadingPage = false;
+                    // Not changeCursor(), which would close the pages
+                    swapCursor(new MergeCursor(mPages.toArray(new Cursor[0])));
+                });
+            });
+        }
+
         @Override
         public View getHeaderView(int position, View convertView, ViewGroup parent) {
             if (convertView == null) {
@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.DisplayMetrics;
@@ -87,6 +88,7 @@ public class ModulesBookmark extends BaseActivity {
         private MenuItem mClickedMenuItem = null;
         private ListView mListView;
         private View mBackgroundList;
+        private int mLoadGeneration = 0;
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
@@ -143,19 +145,28 @@ public class ModulesBookmark extends BaseActivity {
         }
 
         private void getModules() {
-            mAdapter.clear();
-            mBookmarkedModules.clear();
+            final List<String> packageNames = new ArrayList<>();
             for (String s : mBookmarksPref.getAll().keySet()) {
-                boolean isBookmarked = mBookmarksPref.getBoolean(s, false);
-
-                if (isBookmarked) {
-                    Module m = mRepoLoader.getModule(s);
-                    if (m != null) mBookmarkedModules.add(m);
-                }
+                if (mBookmarksPref.getBoolean(s, false))
+                    packageNames.add(s);
             }
-            Collections.sort(mBookmarkedModules, (mod1, mod2) -> mod1.name.compareTo(mod2.name));
-            mAdapter.addAll(mBookmarkedModules);
-            mAdapter.notifyDataSetChanged();
+
+            final int generation = ++mLoadGeneration;
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+                final List<Module> modules = new ArrayList<>(mRepoLoader.getModules(packageNames).values());
+                Collections.sort(modules, (mod1, mod2) -> mod1.name.compareTo(mod2.name));
+
+                XposedApp.runOnUiThread(() -> {
+                    // Ignore results that have been superseded by a later call
+                    if (generation != mLoadGeneration || !isAdded())
+                        return;
+
+                    mBookmarkedModules = modules;
+                    mAdapter.clear();
+                    mAdapter.addAll(mBookmarkedModules);
+                    mAdapter.notifyDataSetChanged();
+                });
+            });
         }
 
         private int getDp(float value) {
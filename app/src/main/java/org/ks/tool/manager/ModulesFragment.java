@@ -2,7 +2,6 @@ package org.ks.tool.manager;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
-import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
@@ -10,6 +9,7 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
@@ -47,6 +47,9 @@ import org.ks.tool.manager.repo.ModuleVersion;
 import org.ks.tool.manager.repo.ReleaseType;
 import org.ks.tool.manager.repo.RepoDb;
 import org.ks.tool.manager.repo.RepoDb.RowNotFoundException;
+import org.ks.tool.manager.util.AppIconCache;
+import org.ks.tool.manager.util.AppLabelIndex;
+import org.ks.tool.manager.util.AppSorter;
 import org.ks.tool.manager.util.DownloadsUtil;
 import org.ks.tool.manager.util.InstallApkUtil;
 import org.ks.tool.manager.util.ModuleUtil;
@@ -60,20 +63,17 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -96,9 +96,6 @@ public class ModulesFragment extends BaseFragment implements ModuleListener, Ada
     private ApplicationFilter filter;
     private SearchView mSearchView;
     private SearchView.OnQueryTextListener mSearchListener;
-    private PackageManager mPm;
-    private Comparator<ApplicationInfo> cmp;
-    private ApplicationInfo.DisplayNameComparator displayNameComparator;
     private DateFormat dateformat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
     private ModuleUtil mModuleUtil;
     private ModuleAdapter mAdapter = null;
@@ -107,91 +104,43 @@ public class ModulesFragment extends BaseFragment implements ModuleListener, Ada
             mAdapter.setNotifyOnChange(false);
             mAdapter.clear();
             String queryStr = mSearchView != null ? mSearchView.getQuery().toString() : "";
-            Collection<InstalledModule> showList;
+            List<InstalledModule> showList;
             Collection<InstalledModule> fullList = mModuleUtil.getModules().values();
             if (queryStr.length() == 0) {
-                showList = fullList;
+                showList = new ArrayList<>(fullList);
             } else {
                 showList = new ArrayList<>();
                 String filter = queryStr.toLowerCase();
                 for (InstalledModule info : fullList) {
-                    if (lowercaseContains(InstallApkUtil.getAppLabel(info.app, mPm), filter)
+                    if (AppLabelIndex.getLowercaseLabel(info.app).contains(filter)
                             || lowercaseContains(info.packageName, filter)) {
                         showList.add(info);
                     }
                 }
             }
-            mAdapter.addAll(showList);
-            switch (XposedApp.getPreferences().getInt("list_sort", 0)) {
-                case 7:
-                    cmp = Collections.reverseOrder((ApplicationInfo a, ApplicationInfo b) -> {
-                        try {
-                            return Long.compare(mPm.getPackageInfo(a.packageName, 0).lastUpdateTime, mPm.getPackageInfo(b.packageName, 0).lastUpdateTime);
-                        } catch (PackageManager.NameNotFoundException e) {
-                            e.printStackTrace();
-                            return displayNameComparator.compare(a, b);
+            AppSorter.sort(showList, XposedApp.getPreferences().getInt("list_sort", 0),
+                    XposedApp.getPreferences().getBoolean("enabled_top", true), new AppSorter.KeyProvider<InstalledModule>() {
+                        @Override
+                        public ApplicationInfo getApp(InstalledModule item) {
+                            return item.app;
                         }
-                    });
-                    break;
-                case 6:
-                    cmp = (ApplicationInfo a, ApplicationInfo b) -> {
-                        try {
-                            return Long.compare(mPm.getPackageInfo(a.packageName, 0).lastUpdateTime, mPm.getPackageInfo(b.packageName, 0).lastUpdateTime);
-                        } catch (PackageManager.NameNotFoundException e) {
-                            e.printStackTrace();
-                            return displayNameComparator.compare(a, b);
+
+                        @Override
+                        public long getInstallTime(InstalledModule item) {
+                            return item.installTime;
                         }
-                    };
-                    break;
-                case 5:
-                    cmp = Collections.reverseOrder((ApplicationInfo a, ApplicationInfo b) -> {
-                        try {
-                            return Long.compare(mPm.getPackageInfo(a.packageName, 0).firstInstallTime, mPm.getPackageInfo(b.packageName, 0).firstInstallTime);
-                        } catch (PackageManager.NameNotFoundException e) {
-                            e.printStackTrace();
-                            return displayNameComparator.compare(a, b);
+
+                        @Override
+                        public long getUpdateTime(InstalledModule item) {
+                            return item.updateTime;
                         }
-                    });
-                    break;
-                case 4:
-                    cmp = (ApplicationInfo a, ApplicationInfo b) -> {
-                        try {
-                            return Long.compare(mPm.getPackageInfo(a.packageName, 0).firstInstallTime, mPm.getPackageInfo(b.packageName, 0).firstInstallTime);
-                        } catch (PackageManager.NameNotFoundException e) {
-                            e.printStackTrace();
-                            return displayNameComparator.compare(a, b);
+
+                        @Override
+                        public boolean isChecked(InstalledModule item) {
+                            return mModuleUtil.isModuleEnabled(item.packageName);
                         }
-                    };
-                    break;
-                case 3:
-                    cmp = Collections.reverseOrder((a, b) -> a.packageName.compareTo(b.packageName));
-                    break;
-                case 2:
-                    cmp = (a, b) -> a.packageName.compareTo(b.packageName);
-                    break;
-                case 1:
-                    cmp = Collections.reverseOrder(displayNameComparator);
-                    break;
-                case 0:
-                default:
-                    cmp = displayNameComparator;
-                    break;
-            }
-            mAdapter.sort((lhs, rhs) -> {
-                if (XposedApp.getPreferences().getBoolean("enabled_top", true)) {
-                    boolean aChecked = mModuleUtil.isModuleEnabled(lhs.packageName);
-                    boolean bChecked = mModuleUtil.isModuleEnabled(rhs.packageName);
-                    if (aChecked == bChecked) {
-                        return cmp.compare(lhs.app, rhs.app);
-                    } else if (aChecked) {
-                        return -1;
-                    } else {
-                        return 1;
-                    }
-                } else {
-                    return cmp.compare(lhs.app, rhs.app);
-                }
-            });
+                    });
+            mAdapter.addAll(showList);
             mAdapter.notifyDataSetChanged();
             mModuleUtil.updateModulesList(false, null);
         }
@@ -208,9 +157,6 @@ public class ModulesFragment extends BaseFragment implements ModuleListener, Ada
         super.onCreate(savedInstanceState);
         filter = new ApplicationFilter();
         mModuleUtil = ModuleUtil.getInstance();
-        mPm = requireActivity().getPackageManager();
-        displayNameComparator = new ApplicationInfo.DisplayNameComparator(mPm);
-        cmp = displayNameComparator;
     }
 
     private void filter(String constraint) {
@@ -486,44 +432,54 @@ public class ModulesFragment extends BaseFragment implements ModuleListener, Ada
             Snackbar.make(requireView(), R.string.sdcard_not_writable, Snackbar.LENGTH_LONG).show();
             return false;
         }
-        InputStream ips = null;
-        RepoLoader repoLoader = RepoLoader.getInstance();
-        List<Module> list = new ArrayList<>();
         if (!path.exists()) {
             Snackbar.make(requireView(), R.string.no_backup_found, Snackbar.LENGTH_LONG).show();
             return false;
         }
-        try {
-            ips = new FileInputStream(path);
-        } catch (FileNotFoundException e) {
-            Log.e(TAG, "ModulesFragment -> " + e.getMessage());
-        }
-
         if (path.length() == 0) {
             Snackbar.make(requireView(), R.string.file_is_empty, Snackbar.LENGTH_LONG).show();
             return false;
         }
 
-        try {
-            assert ips != null;
-            InputStreamReader ipsr = new InputStreamReader(ips);
-            BufferedReader br = new BufferedReader(ipsr);
-            String line;
-            while ((line = br.readLine()) != null) {
-                Module m = repoLoader.getModule(line);
-
-                if (m == null) {
-                    Snackbar.make(requireView(), R.string.download_details_not_found, Snackbar.LENGTH_LONG).show();
-                } else {
-                    list.add(m);
+        // Reading the list and looking up the modules shouldn't block the UI
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            List<String> packageNames = new ArrayList<>();
+            IOException error = null;
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(path)))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    packageNames.add(line);
                 }
+            } catch (IOException e) {
+                Log.e(TAG, "ModulesFragment -> " + e.getMessage());
+                error = e;
             }
-            br.close();
-        } catch (ActivityNotFoundException | IOException e) {
-            Snackbar.make(requireView(), e.toString(), Snackbar.LENGTH_LONG).show();
+
+            final Map<String, Module> modules = RepoLoader.getInstance().getModules(packageNames);
+            final boolean notFound = modules.size() < new HashSet<>(packageNames).size();
+            final IOException readError = error;
+            XposedApp.runOnUiThread(() -> onModulesImported(packageNames, modules, notFound, readError));
+        });
+
+        return true;
+    }
+
+    private void onModulesImported(List<String> packageNames, Map<String, Module> modules,
+                                   boolean notFound, IOException error) {
+        if (getView() == null)
+            return;
+
+        if (error != null) {
+            Snackbar.make(requireView(), error.toString(), Snackbar.LENGTH_LONG).show();
+        } else if (notFound) {
+            Snackbar.make(requireView(), R.string.download_details_not_found, Snackbar.LENGTH_LONG).show();
         }
 
-        for (final Module m : list) {
+        for (String packageName : packageNames) {
+            final Module m = modules.get(packageName);
+            if (m == null)
+                continue;
+
             ModuleVersion mv = null;
             for (int i = 0; i < m.versions.size(); i++) {
                 ModuleVersion mvTemp = m.versions.get(i);
@@ -540,8 +496,6 @@ public class ModulesFragment extends BaseFragment implements ModuleListener, Ada
         }
 
         ModuleUtil.getInstance().reloadInstalledModules();
-
-        return true;
     }
 
     @Override
@@ -746,7 +700,7 @@ public class ModulesFragment extends BaseFragment implements ModuleListener, Ada
             view.findViewById(R.id.checkbox).setTag(item.packageName);
             view.setTag(item.packageName);
 
-            ((ImageView) view.findViewById(R.id.icon)).setImageDrawable(item.getIcon());
+            AppIconCache.load(view.findViewById(R.id.icon), item);
 
             TextView descriptionText = view.findViewById(R.id.description);
             if (!item.getDescription().isEmpty()) {
@@ -31,6 +31,8 @@ import androidx.appcompat.app.ActionBar;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import org.ks.tool.manager.receiver.PackageChangeReceiver;
+import org.ks.tool.manager.repo.RepoDb;
+import org.ks.tool.manager.util.AppIconCache;
 import org.ks.tool.manager.util.ModuleUtil;
 import org.ks.tool.manager.util.NotificationUtil;
 import org.ks.tool.manager.util.RepoLoader;
@@ -213,6 +215,8 @@ public class XposedApp extends com.android.ks.tool.installer.XposedApp implement
         mMainHandler = new Handler();
 
         mPref = PreferenceManager.getDefaultSharedPreferences(this);
+        // Open the repository database while the rest of the app starts
+        RepoDb.warmUp();
 
         com.android.ks.tool.installer.XposedApp.getInstance().reloadXposedProp();
         createDirectories();
@@ -243,6 +247,12 @@ public class XposedApp extends com.android.ks.tool.installer.XposedApp implement
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        AppIconCache.trimMemory(level);
+    }
+
     private void registerReceivers() {
         IntentFilter filter = new IntentFilter();
         filter.addAction(Intent.ACTION_PACKAGE_ADDED);
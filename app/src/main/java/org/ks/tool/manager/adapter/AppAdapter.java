@@ -5,6 +5,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.AsyncTask;
 import android.os.Build;
@@ -31,7 +32,9 @@ import com.topjohnwu.superuser.Shell;
 
 import org.ks.tool.manager.R;
 import org.ks.tool.manager.XposedApp;
-import org.ks.tool.manager.util.InstallApkUtil;
+import org.ks.tool.manager.util.AppIconCache;
+import org.ks.tool.manager.util.AppLabelIndex;
+import org.ks.tool.manager.util.AppSorter;
 import org.ks.tool.manager.util.NavUtil;
 import org.ks.tool.manager.util.ThemeUtil;
 
@@ -39,10 +42,11 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import static org.ks.tool.manager.BaseFragment.areYouSure;
 
@@ -50,7 +54,6 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
 
     private static AppAdapter app;
     protected final Context context;
-    private final ApplicationInfo.DisplayNameComparator displayNameComparator;
     private final DateFormat dateformat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
     private final PackageManager pm;
     private final ApplicationFilter filter;
@@ -58,7 +61,6 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
     Intent intent = new Intent();
     private Callback callback;
     private List<String> checkedList;
-    private Comparator<ApplicationInfo> cmp;
 
     AppAdapter(Context context) {
         intent.addCategory(Intent.CATEGORY_LAUNCHER);
@@ -70,8 +72,6 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
         checkedList = Collections.emptyList();
         filter = new ApplicationFilter();
         pm = context.getPackageManager();
-        displayNameComparator = new ApplicationInfo.DisplayNameComparator(pm);
-        cmp = displayNameComparator;
         refresh();
     }
 
@@ -254,7 +254,6 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
     }
 
     private void loadApps(List<String> removeList) {
-        PackageManager manager = context.getPackageManager();
         fullList = pm.getInstalledApplications(PackageManager.GET_META_DATA);
         List<ApplicationInfo> rmList = new ArrayList<>();
         for (ApplicationInfo info : fullList) {
@@ -277,7 +276,7 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
             }
 
             if (!XposedApp.getPreferences().getBoolean("show_no_name", true)) {
-                if (manager.getApplicationLabel(info).toString().equals(info.packageName)) {
+                if (AppLabelIndex.getLabel(info).equals(info.packageName)) {
                     rmList.add(info);
                     continue;
                 }
@@ -319,6 +318,8 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
         if (rmList.size() > 0) {
             fullList.removeAll(rmList);
         }
+        // Filtering and binding then only use the index
+        AppLabelIndex.prefetch(fullList);
         AppHelper.makeSurePath();
         checkedList = generateCheckedList();
         sortApps();
@@ -337,90 +338,58 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
     }
 
     private void sortApps() {
-        switch (XposedApp.getPreferences().getInt("list_sort", 0)) {
-            case 7:
-                cmp = Collections.reverseOrder((ApplicationInfo a, ApplicationInfo b) -> {
-                    try {
-                        return Long.compare(pm.getPackageInfo(a.packageName, 0).lastUpdateTime, pm.getPackageInfo(b.packageName, 0).lastUpdateTime);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        e.printStackTrace();
-                        return displayNameComparator.compare(a, b);
+        // Looked up in every comparison, so don't search the list
+        final Set<String> checked = new HashSet<>(checkedList);
+        AppSorter.sort(fullList, XposedApp.getPreferences().getInt("list_sort", 0),
+                XposedApp.getPreferences().getBoolean("enabled_top", true), new AppSorter.KeyProvider<ApplicationInfo>() {
+                    @Override
+                    public ApplicationInfo getApp(ApplicationInfo item) {
+                        return item;
                     }
-                });
-                break;
-            case 6:
-                cmp = (ApplicationInfo a, ApplicationInfo b) -> {
-                    try {
-                        return Long.compare(pm.getPackageInfo(a.packageName, 0).lastUpdateTime, pm.getPackageInfo(b.packageName, 0).lastUpdateTime);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        e.printStackTrace();
-                        return displayNameComparator.compare(a, b);
+
+                    @Override
+                    public long getInstallTime(ApplicationInfo item) {
+                        PackageInfo pkgInfo = getPackageInfo(item);
+                        return (pkgInfo != null) ? pkgInfo.firstInstallTime : 0;
                     }
-                };
-                break;
-            case 5:
-                cmp = Collections.reverseOrder((ApplicationInfo a, ApplicationInfo b) -> {
-                    try {
-                        return Long.compare(pm.getPackageInfo(a.packageName, 0).firstInstallTime, pm.getPackageInfo(b.packageName, 0).firstInstallTime);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        e.printStackTrace();
-                        return displayNameComparator.compare(a, b);
+
+                    @Override
+                    public long getUpdateTime(ApplicationInfo item) {
+                        PackageInfo pkgInfo = getPackageInfo(item);
+                        return (pkgInfo != null) ? pkgInfo.lastUpdateTime : 0;
                     }
-                });
-                break;
-            case 4:
-                cmp = (ApplicationInfo a, ApplicationInfo b) -> {
-                    try {
-                        return Long.compare(pm.getPackageInfo(a.packageName, 0).firstInstallTime, pm.getPackageInfo(b.packageName, 0).firstInstallTime);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        e.printStackTrace();
-                        return displayNameComparator.compare(a, b);
+
+                    @Override
+                    public boolean isChecked(ApplicationInfo item) {
+                        return checked.contains(item.packageName);
                     }
-                };
-                break;
-            case 3:
-                cmp = Collections.reverseOrder((a, b) -> a.packageName.compareTo(b.packageName));
-                break;
-            case 2:
-                cmp = (a, b) -> a.packageName.compareTo(b.packageName);
-                break;
-            case 1:
-                cmp = Collections.reverseOrder(displayNameComparator);
-                break;
-            case 0:
-            default:
-                cmp = displayNameComparator;
-                break;
+                });
+    }
+
+    private PackageInfo getPackageInfo(ApplicationInfo info) {
+        try {
+            return pm.getPackageInfo(info.packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+            return null;
         }
-        fullList.sort((a, b) -> {
-            if (XposedApp.getPreferences().getBoolean("enabled_top", true)) {
-                boolean aChecked = checkedList.contains(a.packageName);
-                boolean bChecked = checkedList.contains(b.packageName);
-                if (aChecked == bChecked) {
-                    return cmp.compare(a, b);
-                } else if (aChecked) {
-                    return -1;
-                } else {
-                    return 1;
-                }
-            } else {
-                return cmp.compare(a, b);
-            }
-        });
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
         ApplicationInfo info = showList.get(position);
-        holder.appIcon.setImageDrawable(info.loadIcon(pm));
-        holder.appName.setText(InstallApkUtil.getAppLabel(info, pm));
+        holder.appName.setText(AppLabelIndex.getLabel(info));
+        long updateTime = 0;
         try {
-            holder.appVersion.setText(pm.getPackageInfo(info.packageName, 0).versionName);
-            holder.appInstallTime.setText(dateformat.format(new Date(pm.getPackageInfo(info.packageName, 0).firstInstallTime)));
-            holder.appUpdateTime.setText(dateformat.format(new Date(pm.getPackageInfo(info.packageName, 0).lastUpdateTime)));
+            PackageInfo pkgInfo = pm.getPackageInfo(info.packageName, 0);
+            updateTime = pkgInfo.lastUpdateTime;
+            holder.appVersion.setText(pkgInfo.versionName);
+            holder.appInstallTime.setText(dateformat.format(new Date(pkgInfo.firstInstallTime)));
+            holder.appUpdateTime.setText(dateformat.format(new Date(pkgInfo.lastUpdateTime)));
         } catch (PackageManager.NameNotFoundException e) {
             e.printStackTrace();
         }
+        AppIconCache.load(holder.appIcon, info, updateTime);
         holder.appPackage.setText(info.packageName);
         holder.appPackage.setTextColor(ThemeUtil.getThemeColor(context, android.R.attr.textColorSecondary));
 
@@ -509,7 +478,7 @@ public class AppAdapter extends RecyclerView.Adapter<AppAdapter.ViewHolder> impl
                 showList = new ArrayList<>();
                 String filter = constraint.toString().toLowerCase();
                 for (ApplicationInfo info : fullList) {
-                    if (lowercaseContains(InstallApkUtil.getAppLabel(info, pm), filter)
+                    if (AppLabelIndex.getLowercaseLabel(info).contains(filter)
                             || lowercaseContains(info.packageName, filter)) {
                         showList.add(info);
                     }
@@ -5,6 +5,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 
+import org.ks.tool.manager.util.AppIconCache;
+import org.ks.tool.manager.util.AppLabelIndex;
 import org.ks.tool.manager.util.ModuleUtil;
 import org.ks.tool.manager.util.ModuleUtil.InstalledModule;
 import org.ks.tool.manager.util.NotificationUtil;
@@ -29,6 +31,8 @@ public class PackageChangeReceiver extends BroadcastReceiver {
         if (packageName == null)
             return;
 
+        AppLabelIndex.invalidate(packageName);
+
         if (intent.getAction().equals(Intent.ACTION_PACKAGE_CHANGED)) {
             // make sure that the change is for the complete package, not only a
             // component
@@ -46,6 +50,7 @@ public class PackageChangeReceiver extends BroadcastReceiver {
             }
         } else if (intent.getAction().equals(Intent.ACTION_PACKAGE_REMOVED)) {
             NotificationUtil.cancel(packageName, NotificationUtil.NOTIFICATION_MODULE_NOT_ACTIVATED_YET);
+            AppIconCache.remove(packageName);
             return;
         }
 
@@ -2,6 +2,8 @@ package org.ks.tool.manager.repo;
 
 import android.util.Pair;
 
+import org.ks.tool.manager.util.HashUtil;
+
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -9,7 +11,7 @@ import java.util.List;
 public class Module {
     public final List<Pair<String, String>> moreInfo = new LinkedList<>();
     public final List<ModuleVersion> versions = new ArrayList<>();
-    final List<String> screenshots = new ArrayList<>();
+    public final List<String> screenshots = new ArrayList<>();
     public String packageName;
     public String name;
     public String summary;
@@ -19,7 +21,54 @@ public class Module {
     public String support;
     long created = -1;
     long updated = -1;
+    private String mContentHash = null;
 
     Module() {
     }
+
+    private static void appendField(StringBuilder sb, Object value) {
+        if (value != null)
+            sb.append(value);
+        sb.append('\u0000');
+    }
+
+    /**
+     * Returns a hash over everything the repository provides for this module, which
+     * only changes if the module's entry has been changed.
+     */
+    public String getContentHash() {
+        if (mContentHash != null)
+            return mContentHash;
+
+        StringBuilder sb = new StringBuilder();
+        appendField(sb, packageName);
+        appendField(sb, name);
+        appendField(sb, summary);
+        appendField(sb, description);
+        appendField(sb, descriptionIsHtml);
+        appendField(sb, author);
+        appendField(sb, support);
+        appendField(sb, created);
+        appendField(sb, updated);
+        for (ModuleVersion version : versions) {
+            appendField(sb, version.name);
+            appendField(sb, version.code);
+            appendField(sb, version.downloadLink);
+            appendField(sb, version.md5sum);
+            appendField(sb, version.changelog);
+            appendField(sb, version.changelogIsHtml);
+            appendField(sb, version.relType.ordinal());
+            appendField(sb, version.uploaded);
+        }
+        for (Pair<String, String> entry : moreInfo) {
+            appendField(sb, entry.first);
+            appendField(sb, entry.second);
+        }
+        for (String screenshot : screenshots) {
+            appendField(sb, screenshot);
+        }
+
+        mContentHash = HashUtil.md5(sb.toString());
+        return mContentHash;
+    }
 }
@@ -0,0 +1,55 @@
+package org.ks.tool.manager.repo;
+
+/**
+ * Language of a module, guessed from the scripts used in its texts when the module is
+ * inserted, so that languages can be filtered without scanning the texts again.
+ * The ordinal is stored in the database, so new languages must be added at the end.
+ */
+public enum ModuleLanguage {
+    OTHER, CHINESE, JAPANESE, KOREAN, CYRILLIC;
+
+    static ModuleLanguage classify(String... texts) {
+        boolean han = false, kana = false, hangul = false, cyrillic = false;
+        for (String text : texts) {
+            if (text == null)
+                continue;
+
+            for (int i = 0; i < text.length(); ) {
+                int codePoint = text.codePointAt(i);
+                i += Character.charCount(codePoint);
+                if (codePoint < 0x0400)
+                    continue;
+
+                switch (Character.UnicodeScript.of(codePoint)) {
+                    case HAN:
+                        han = true;
+                        break;
+                    case HIRAGANA:
+                    case KATAKANA:
+                        kana = true;
+                        break;
+                    case HANGUL:
+                        hangul = true;
+                        break;
+                    case CYRILLIC:
+                        cyrillic = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        // Japanese texts usually contain Han characters as well
+        if (kana)
+            return JAPANESE;
+        else if (han)
+            return CHINESE;
+        else if (hangul)
+            return KOREAN;
+        else if (cyrillic)
+            return CYRILLIC;
+        else
+            return OTHER;
+    }
+}
@@ -1,54 +1,198 @@
 package org.ks.tool.manager.repo;
 
-import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.Log;
 import android.util.Pair;
 
-import org.ks.tool.manager.BuildConfig;
 import org.ks.tool.manager.XposedApp;
 import org.ks.tool.manager.repo.RepoDbDefinitions.InstalledModulesColumns;
 import org.ks.tool.manager.repo.RepoDbDefinitions.InstalledModulesUpdatesColumns;
 import org.ks.tool.manager.repo.RepoDbDefinitions.ModuleVersionsColumns;
 import org.ks.tool.manager.repo.RepoDbDefinitions.ModulesColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.ModulesFtsColumns;
 import org.ks.tool.manager.repo.RepoDbDefinitions.MoreInfoColumns;
 import org.ks.tool.manager.repo.RepoDbDefinitions.OverviewColumns;
 import org.ks.tool.manager.repo.RepoDbDefinitions.OverviewColumnsIndexes;
 import org.ks.tool.manager.repo.RepoDbDefinitions.RepositoriesColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.ScannedPackagesColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.ScreenshotsColumns;
 import org.ks.tool.manager.util.ModuleUtil;
 import org.ks.tool.manager.util.ModuleUtil.InstalledModule;
 import org.ks.tool.manager.util.RepoLoader;
 
+import java.io.Closeable;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-import static android.content.Context.MODE_PRIVATE;
+import static org.ks.tool.manager.MeowCatApplication.TAG;
 
 public final class RepoDb extends SQLiteOpenHelper {
     public static final int SORT_STATUS = 0;
     public static final int SORT_UPDATED = 1;
     private static final int SORT_CREATED = 2;
+    // Each package name is bound once, which stays well below the 999 arguments that SQLite
+    // allows before API 31. The result of a query has several rows per module, which have
+    // to fit into the cursor window.
+    private static final int MAX_PACKAGES_PER_QUERY = 300;
+    private static final String MODULE_IDS = "module_ids";
+    // Kinds of rows returned by the query in loadModules()
+    private static final int DETAIL_ROW_MODULE = 0;
+    private static final int DETAIL_ROW_VERSION = 1;
+    private static final int DETAIL_ROW_MORE_INFO = 2;
+    private static final int DETAIL_ROW_SCREENSHOT = 3;
+
+    private static final FutureTask<SQLiteDatabase> sOpenTask = new FutureTask<>(RepoDb::open);
+    private static volatile SQLiteDatabase sDb;
+    // Read from the preferences when first needed, see getGlobalReleaseType()
+    private static volatile ReleaseType sGlobalReleaseType;
 
-    @SuppressLint("StaticFieldLeak")
-    private static Context context;
-    private static SQLiteDatabase sDb;
+    private RepoDb(Context context) {
+        super(context, getDbPath(context), null, RepoDbDefinitions.DATABASE_VERSION);
+        // Readers get their own connections and see the last committed state while
+        // a repository is being written
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Starts opening the database in the background, so that it's usually ready by the
+     * time it's needed. The returned future completes once the database can be used.
+     */
+    public static Future<?> warmUp() {
+        new Thread(sOpenTask, "RepoDbOpen").start();
+        return sOpenTask;
+    }
+
+    /**
+     * Waits until the database has been opened. If {@link #warmUp()} hasn't been called,
+     * the database is opened on the calling thread.
+     */
+    public static void awaitOpen() {
+        db();
+    }
+
+    private static SQLiteDatabase db() {
+        SQLiteDatabase db = sDb;
+        if (db != null)
+            return db;
+
+        final long start = SystemClock.elapsedRealtime();
+        // Does nothing if the task is already running or done
+        sOpenTask.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    db = sOpenTask.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Could not open the repository database", e.getCause());
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        Log.i(TAG, String.format("RepoDb -> Thread %s waited %d ms for the database",
+                Thread.currentThread().getName(), SystemClock.elapsedRealtime() - start));
+        return db;
+    }
 
-    static {
+    private static SQLiteDatabase open() {
+        final long start = SystemClock.elapsedRealtime();
         RepoDb instance = new RepoDb(XposedApp.getInstance());
-        sDb = instance.getWritableDatabase();
-        sDb.execSQL("PRAGMA foreign_keys=ON");
-        instance.createTempTables(sDb);
+        SQLiteDatabase db = instance.getWritableDatabase();
+        instance.resetInstalledModules(db);
+        sDb = db;
+        Log.i(TAG, String.format("RepoDb -> Opened database in %d ms", SystemClock.elapsedRealtime() - start));
+        return db;
     }
 
-    private RepoDb(Context context) {
-        super(context, getDbPath(context), null, RepoDbDefinitions.DATABASE_VERSION);
-        RepoDb.context = context;
+    /**
+     * Returns the queries whose plans are checked by the tests, see {@link CheckedQuery}.
+     * Queries that are meant to process all rows, such as recalculating all updates, are
+     * not included.
+     */
+    static List<CheckedQuery> getCheckedQueries(ReleaseType releaseType) {
+        List<CheckedQuery> queries = new ArrayList<>();
+        // Module details and bookmarks, the module ids are those of the bound package names
+        queries.add(new CheckedQuery("module details", getModulesQuery(1), new String[]{""}, MODULE_IDS));
+        queries.add(new CheckedQuery("support link", "SELECT " + ModulesColumns.SUPPORT + " FROM " + ModulesColumns.TABLE_NAME
+                + " WHERE " + ModulesColumns.PKGNAME + " = ?", new String[]{""}));
+        // Incremental updates and foreign keys of deleted repositories and modules
+        queries.add(new CheckedQuery("module hashes", "SELECT " + ModulesColumns.CONTENT_HASH + " FROM " + ModulesColumns.TABLE_NAME
+                + " WHERE " + ModulesColumns.REPO_ID + " = ?", new String[]{"0"}));
+        queries.add(new CheckedQuery("module deletion", "SELECT " + ModulesColumns._ID + " FROM " + ModulesColumns.TABLE_NAME
+                + " WHERE " + ModulesColumns.REPO_ID + " = ? AND " + ModulesColumns.PKGNAME + " = ?", new String[]{"0", ""}));
+        queries.add(new CheckedQuery("version deletion", "SELECT " + ModuleVersionsColumns._ID + " FROM " + ModuleVersionsColumns.TABLE_NAME
+                + " WHERE " + ModuleVersionsColumns.MODULE_ID + " = ?", new String[]{"0"}));
+        queries.add(new CheckedQuery("more info deletion", "SELECT " + MoreInfoColumns._ID + " FROM " + MoreInfoColumns.TABLE_NAME
+                + " WHERE " + MoreInfoColumns.MODULE_ID + " = ?", new String[]{"0"}));
+        queries.add(new CheckedQuery("screenshot deletion", "SELECT " + ScreenshotsColumns._ID + " FROM " + ScreenshotsColumns.TABLE_NAME
+                + " WHERE " + ScreenshotsColumns.MODULE_ID + " = ?", new String[]{"0"}));
+        // Installed modules and their updates
+        queries.add(new CheckedQuery("module update", RepoDbDefinitions.getSqlInsertInstalledModulesUpdates(releaseType, true),
+                new String[]{""}));
+        queries.add(new CheckedQuery("framework update", "SELECT " + InstalledModulesUpdatesColumns.LATEST_NAME
+                + " FROM " + InstalledModulesUpdatesColumns.TABLE_NAME
+                + " WHERE " + InstalledModulesUpdatesColumns.PKGNAME + " = ?", new String[]{""}));
+
+        // The overview in all orders, searched and filtered by language, and continued
+        OverviewKey after = new OverviewKey(0, "", "", 0, 0, 0, 0, 0, 0);
+        OverviewKey afterInstalled = new OverviewKey(0, "", "", 0, 0, 0, 1, 1, 0);
+        for (int sortingOrder : new int[]{SORT_STATUS, SORT_UPDATED, SORT_CREATED}) {
+            for (String filterText : new String[]{null, "xposed", "\u6a21\u5757"}) {
+                for (EnumSet<ModuleLanguage> hiddenLanguages : Arrays.asList(EnumSet.noneOf(ModuleLanguage.class),
+                        EnumSet.of(ModuleLanguage.CHINESE))) {
+                    for (OverviewKey key : new OverviewKey[]{null, after, afterInstalled}) {
+                        List<String> args = new ArrayList<>();
+                        String sql = getOverviewQuery(sortingOrder, filterText, key, 50, releaseType,
+                                "", hiddenLanguages, args);
+                        // Both parts end at the LIMIT, and the installed modules are listed to
+                        // tell them apart (older versions of SQLite name subqueries differently)
+                        List<String> boundedScans = new ArrayList<>(Arrays.asList(
+                                "SCAN SUBQUERY", "SCAN (subquery", InstalledModulesColumns.TABLE_NAME));
+                        if (filterText != null && buildFtsQuery(filterText) != null) {
+                            // Only returns the matches of the bound search text
+                            boundedScans.add(ModulesFtsColumns.TABLE_NAME + " VIRTUAL TABLE");
+                        } else if (key == null || (key == afterInstalled && sortingOrder == SORT_STATUS)) {
+                            // Returns the modules without a status from the first one in the order of
+                            // the page, otherwise the index is searched for the first one to return
+                            boundedScans.add("INDEX " + getOverviewIndex(sortingOrder));
+                        }
+                        queries.add(new CheckedQuery("overview (order " + sortingOrder + ", filter " + filterText
+                                + ", hidden " + hiddenLanguages + (key == null ? ", first page)" : ", next page)"),
+                                sql, args.toArray(new String[0]), boundedScans.toArray(new String[0])));
+                    }
+                }
+            }
+        }
+        return queries;
     }
 
     private static String getDbPath(Context context) {
@@ -56,22 +200,34 @@ public final class RepoDb extends SQLiteOpenHelper {
     }
 
     public static void beginTransation() {
-        sDb.beginTransaction();
+        db().beginTransactionNonExclusive();
     }
 
     public static void setTransactionSuccessful() {
-        sDb.setTransactionSuccessful();
+        db().setTransactionSuccessful();
     }
 
     public static void endTransation() {
-        sDb.endTransaction();
+        db().endTransaction();
+    }
+
+    /**
+     * Copies the write-ahead log into the database and truncates it, as it would
+     * otherwise stay as large as the biggest refresh.
+     */
+    public static void checkpoint() {
+        Cursor c = db().rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        if (c.moveToFirst() && c.getInt(0) != 0)
+            Log.w(TAG, String.format("RepoDb -> Checkpoint blocked by readers, %d of %d pages copied",
+                    c.getInt(2), c.getInt(1)));
+        c.close();
     }
 
     private static String getString(String searchValue) {
         String[] projection = new String[]{ModulesColumns.SUPPORT};
         String where = ModulesColumns.PKGNAME + " = ?";
         String[] whereArgs = new String[]{searchValue};
-        Cursor c = sDb.query(ModulesColumns.TABLE_NAME, projection, where, whereArgs, null, null, null, "1");
+        Cursor c = db().query(ModulesColumns.TABLE_NAME, projection, where, whereArgs, null, null, null, "1");
         if (c.moveToFirst()) {
             String result = c.getString(c.getColumnIndexOrThrow(ModulesColumns.SUPPORT));
             c.close();
@@ -85,12 +241,12 @@ public final class RepoDb extends SQLiteOpenHelper {
     public static void insertRepository(String url) {
         ContentValues values = new ContentValues();
         values.put(RepositoriesColumns.URL, url);
-        sDb.insertOrThrow(RepositoriesColumns.TABLE_NAME, null, values);
+        db().insertOrThrow(RepositoriesColumns.TABLE_NAME, null, values);
     }
 
     public static void deleteRepositories() {
-        if (sDb != null)
-            sDb.delete(RepositoriesColumns.TABLE_NAME, null, null);
+        db().delete(RepositoriesColumns.TABLE_NAME, null, null);
+        db().delete(InstalledModulesUpdatesColumns.TABLE_NAME, null, null);
     }
 
     public static Map<Long, Repository> getRepositories() {
@@ -104,7 +260,7 @@ public final class RepoDb extends SQLiteOpenHelper {
                 RepositoriesColumns.VERSION,
         };
 
-        Cursor c = sDb.query(RepositoriesColumns.TABLE_NAME, projection, null, null, null, null, RepositoriesColumns._ID);
+        Cursor c = db().query(RepositoriesColumns.TABLE_NAME, projection, null, null, null, null, RepositoriesColumns._ID);
         while (c.moveToNext()) {
             Repository repo = new Repository();
             long id = c.getLong(c.getColumnIndexOrThrow(RepositoriesColumns._ID));
@@ -124,228 +280,482 @@ public final class RepoDb extends SQLiteOpenHelper {
         values.put(RepositoriesColumns.TITLE, repository.name);
         values.put(RepositoriesColumns.PARTIAL_URL, repository.partialUrl);
         values.put(RepositoriesColumns.VERSION, repository.version);
-        sDb.update(RepositoriesColumns.TABLE_NAME, values, RepositoriesColumns._ID + " = ?", new String[]{Long.toString(repoId)});
+        db().update(RepositoriesColumns.TABLE_NAME, values, RepositoriesColumns._ID + " = ?", new String[]{Long.toString(repoId)});
     }
 
     public static void updateRepositoryVersion(long repoId, String version) {
         ContentValues values = new ContentValues();
         values.put(RepositoriesColumns.VERSION, version);
-        sDb.update(RepositoriesColumns.TABLE_NAME, values, RepositoriesColumns._ID + " = ?", new String[]{Long.toString(repoId)});
+        db().update(RepositoriesColumns.TABLE_NAME, values, RepositoriesColumns._ID + " = ?", new String[]{Long.toString(repoId)});
     }
 
-    public static void insertModule(long repoId, Module mod) {
-        ContentValues values = new ContentValues();
-        values.put(ModulesColumns.REPO_ID, repoId);
-        values.put(ModulesColumns.PKGNAME, mod.packageName);
-        values.put(ModulesColumns.TITLE, mod.name);
-        values.put(ModulesColumns.SUMMARY, mod.summary);
-        values.put(ModulesColumns.DESCRIPTION, mod.description);
-        values.put(ModulesColumns.DESCRIPTION_IS_HTML, mod.descriptionIsHtml);
-        values.put(ModulesColumns.AUTHOR, mod.author);
-        values.put(ModulesColumns.SUPPORT, mod.support);
-        values.put(ModulesColumns.CREATED, mod.created);
-        values.put(ModulesColumns.UPDATED, mod.updated);
-
-        ModuleVersion latestVersion = RepoLoader.getInstance().getLatestVersion(mod);
-
-        sDb.beginTransaction();
-        try {
-            long moduleId = sDb.insertOrThrow(ModulesColumns.TABLE_NAME, null, values);
-
-            long latestVersionId = -1;
-            for (ModuleVersion version : mod.versions) {
-                long versionId = insertModuleVersion(moduleId, version);
-                if (latestVersion == version)
-                    latestVersionId = versionId;
-            }
-
-            if (latestVersionId > -1) {
-                values = new ContentValues();
-                values.put(ModulesColumns.LATEST_VERSION, latestVersionId);
-                sDb.update(ModulesColumns.TABLE_NAME, values, ModulesColumns._ID + " = ?", new String[]{Long.toString(moduleId)});
-            }
-
-            for (Pair<String, String> moreInfoEntry : mod.moreInfo) {
-                insertMoreInfo(moduleId, moreInfoEntry.first, moreInfoEntry.second);
-            }
-
-            sDb.setTransactionSuccessful();
-
-        } finally {
-            sDb.endTransaction();
-        }
+    /**
+     * Creates an inserter for bulk-loading modules into the given repository. It must
+     * only be used on the thread that holds the current transaction, and closed afterwards.
+     */
+    public static ModuleInserter newModuleInserter(long repoId) {
+        return new ModuleInserter(repoId);
     }
 
-    private static long insertModuleVersion(long moduleId, ModuleVersion version) {
-        ContentValues values = new ContentValues();
-        values.put(ModuleVersionsColumns.MODULE_ID, moduleId);
-        values.put(ModuleVersionsColumns.NAME, version.name);
-        values.put(ModuleVersionsColumns.CODE, version.code);
-        values.put(ModuleVersionsColumns.DOWNLOAD_LINK, version.downloadLink);
-        values.put(ModuleVersionsColumns.MD5SUM, version.md5sum);
-        values.put(ModuleVersionsColumns.CHANGELOG, version.changelog);
-        values.put(ModuleVersionsColumns.CHANGELOG_IS_HTML, version.changelogIsHtml);
-        values.put(ModuleVersionsColumns.RELTYPE, version.relType.ordinal());
-        values.put(ModuleVersionsColumns.UPLOADED, version.uploaded);
-        return sDb.insertOrThrow(ModuleVersionsColumns.TABLE_NAME, null,
-                values);
-    }
-
-    private static void insertMoreInfo(long moduleId, String title, String value) {
-        ContentValues values = new ContentValues();
-        values.put(MoreInfoColumns.MODULE_ID, moduleId);
-        values.put(MoreInfoColumns.LABEL, title);
-        values.put(MoreInfoColumns.VALUE, value);
-        sDb.insertOrThrow(MoreInfoColumns.TABLE_NAME, null, values);
+    /**
+     * Returns the content hashes of all modules in the given repository, by package name.
+     */
+    public static Map<String, String> getModuleHashes(long repoId) {
+        Map<String, String> result = new HashMap<>();
+        String[] projection = new String[]{ModulesColumns.PKGNAME, ModulesColumns.CONTENT_HASH};
+        String where = ModulesColumns.REPO_ID + " = ?";
+        String[] whereArgs = new String[]{Long.toString(repoId)};
+        Cursor c = db().query(ModulesColumns.TABLE_NAME, projection, where, whereArgs, null, null, null);
+        while (c.moveToNext()) {
+            result.put(c.getString(0), c.getString(1));
+        }
+        c.close();
+        return result;
     }
 
     public static void deleteAllModules(long repoId) {
-        sDb.delete(ModulesColumns.TABLE_NAME, ModulesColumns.REPO_ID + " = ?", new String[]{Long.toString(repoId)});
+        db().delete(ModulesColumns.TABLE_NAME, ModulesColumns.REPO_ID + " = ?", new String[]{Long.toString(repoId)});
     }
 
     public static void deleteModule(long repoId, String packageName) {
-        sDb.delete(ModulesColumns.TABLE_NAME, ModulesColumns.REPO_ID + " = ? AND " + ModulesColumns.PKGNAME + " = ?", new String[]{Long.toString(repoId), packageName});
+        db().delete(ModulesColumns.TABLE_NAME, ModulesColumns.REPO_ID + " = ? AND " + ModulesColumns.PKGNAME + " = ?", new String[]{Long.toString(repoId), packageName});
     }
 
+    /**
+     * Loads the preferred module with this package name, including its versions and
+     * additional information, with a single query.
+     */
     public static Module getModuleByPackageName(String packageName) {
-        // The module itself
-        String[] projection = new String[]{
-                ModulesColumns._ID,
-                ModulesColumns.REPO_ID,
-                ModulesColumns.PKGNAME,
-                ModulesColumns.TITLE,
-                ModulesColumns.SUMMARY,
-                ModulesColumns.DESCRIPTION,
-                ModulesColumns.DESCRIPTION_IS_HTML,
-                ModulesColumns.AUTHOR,
-                ModulesColumns.SUPPORT,
-                ModulesColumns.CREATED,
-                ModulesColumns.UPDATED,
-        };
-
-        String where = ModulesColumns.PREFERRED + " = 1 AND " + ModulesColumns.PKGNAME + " = ?";
-        String[] whereArgs = new String[]{packageName};
-
-        Cursor c = sDb.query(ModulesColumns.TABLE_NAME, projection, where, whereArgs, null, null, null, "1");
-        if (!c.moveToFirst()) {
-            c.close();
-            return null;
-        }
-
-        long moduleId = c.getLong(c.getColumnIndexOrThrow(ModulesColumns._ID));
-
-        Module mod = new Module();
-        mod.packageName = c.getString(c.getColumnIndexOrThrow(ModulesColumns.PKGNAME));
-        mod.name = c.getString(c.getColumnIndexOrThrow(ModulesColumns.TITLE));
-        mod.summary = c.getString(c.getColumnIndexOrThrow(ModulesColumns.SUMMARY));
-        mod.description = c.getString(c.getColumnIndexOrThrow(ModulesColumns.DESCRIPTION));
-        mod.descriptionIsHtml = c.getInt(c.getColumnIndexOrThrow(ModulesColumns.DESCRIPTION_IS_HTML)) > 0;
-        mod.author = c.getString(c.getColumnIndexOrThrow(ModulesColumns.AUTHOR));
-        mod.support = c.getString(c.getColumnIndexOrThrow(ModulesColumns.SUPPORT));
-        mod.created = c.getLong(c.getColumnIndexOrThrow(ModulesColumns.CREATED));
-        mod.updated = c.getLong(c.getColumnIndexOrThrow(ModulesColumns.UPDATED));
-
-        c.close();
-
-        // Versions
-        projection = new String[]{
-                ModuleVersionsColumns.NAME,
-                ModuleVersionsColumns.CODE, ModuleVersionsColumns.DOWNLOAD_LINK,
-                ModuleVersionsColumns.MD5SUM, ModuleVersionsColumns.CHANGELOG,
-                ModuleVersionsColumns.CHANGELOG_IS_HTML,
-                ModuleVersionsColumns.RELTYPE,
-                ModuleVersionsColumns.UPLOADED,
-        };
-
-        where = ModuleVersionsColumns.MODULE_ID + " = ?";
-        whereArgs = new String[]{Long.toString(moduleId)};
+        return getModulesByPackageNames(Collections.singleton(packageName)).get(packageName);
+    }
 
-        c = sDb.query(ModuleVersionsColumns.TABLE_NAME, projection, where, whereArgs, null, null, null);
-        while (c.moveToNext()) {
-            ModuleVersion version = new ModuleVersion(mod);
-            version.name = c.getString(c.getColumnIndexOrThrow(ModuleVersionsColumns.NAME));
-            version.code = c.getInt(c.getColumnIndexOrThrow(ModuleVersionsColumns.CODE));
-            version.downloadLink = c.getString(c.getColumnIndexOrThrow(ModuleVersionsColumns.DOWNLOAD_LINK));
-            version.md5sum = c.getString(c.getColumnIndexOrThrow(ModuleVersionsColumns.MD5SUM));
-            version.changelog = c.getString(c.getColumnIndexOrThrow(ModuleVersionsColumns.CHANGELOG));
-            version.changelogIsHtml = c.getInt(c.getColumnIndexOrThrow(ModuleVersionsColumns.CHANGELOG_IS_HTML)) > 0;
-            version.relType = ReleaseType.fromOrdinal(c.getInt(c.getColumnIndexOrThrow(ModuleVersionsColumns.RELTYPE)));
-            version.uploaded = c.getLong(c.getColumnIndexOrThrow(ModuleVersionsColumns.UPLOADED));
-            mod.versions.add(version);
+    /**
+     * Loads the preferred modules with these package names, including their versions and
+     * additional information, with one query per {@value #MAX_PACKAGES_PER_QUERY} packages.
+     * Packages that aren't available in any repository are missing from the result.
+     */
+    public static Map<String, Module> getModulesByPackageNames(Collection<String> packageNames) {
+        Map<String, Module> result = new HashMap<>(packageNames.size());
+        List<String> chunk = new ArrayList<>(Math.min(packageNames.size(), MAX_PACKAGES_PER_QUERY));
+        for (String packageName : packageNames) {
+            chunk.add(packageName);
+            if (chunk.size() == MAX_PACKAGES_PER_QUERY) {
+                loadModules(chunk, result);
+                chunk.clear();
+            }
         }
-        c.close();
-
-        // MoreInfo
-        projection = new String[]{
-                MoreInfoColumns.LABEL,
-                MoreInfoColumns.VALUE,
-        };
-
-        where = MoreInfoColumns.MODULE_ID + " = ?";
-        whereArgs = new String[]{Long.toString(moduleId)};
+        if (!chunk.isEmpty())
+            loadModules(chunk, result);
+        return result;
+    }
 
-        c = sDb.query(MoreInfoColumns.TABLE_NAME, projection, where, whereArgs, null, null, MoreInfoColumns._ID);
+    private static void loadModules(List<String> packageNames, Map<String, Module> result) {
+        String[] names = packageNames.toArray(new String[0]);
+        Cursor c = db().rawQuery(getModulesQuery(names.length), names);
+        Module mod = null;
         while (c.moveToNext()) {
-            String label = c.getString(c.getColumnIndexOrThrow(MoreInfoColumns.LABEL));
-            String value = c.getString(c.getColumnIndexOrThrow(MoreInfoColumns.VALUE));
-            mod.moreInfo.add(new Pair<>(label, value));
+            switch (c.getInt(0)) {
+                case DETAIL_ROW_MODULE:
+                    mod = new Module();
+                    mod.packageName = c.getString(3);
+                    mod.name = c.getString(4);
+                    mod.summary = c.getString(5);
+                    mod.description = c.getString(6);
+                    mod.descriptionIsHtml = c.getInt(7) > 0;
+                    mod.author = c.getString(8);
+                    mod.support = c.getString(9);
+                    mod.created = c.getLong(10);
+                    mod.updated = c.getLong(11);
+                    result.put(mod.packageName, mod);
+                    break;
+                case DETAIL_ROW_VERSION:
+                    ModuleVersion version = new ModuleVersion(mod);
+                    version.name = c.getString(3);
+                    version.code = c.getInt(4);
+                    version.downloadLink = c.getString(5);
+                    version.md5sum = c.getString(6);
+                    version.changelog = c.getString(7);
+                    version.changelogIsHtml = c.getInt(8) > 0;
+                    version.relType = ReleaseType.fromOrdinal(c.getInt(9));
+                    version.uploaded = c.getLong(10);
+                    mod.versions.add(version);
+                    break;
+                case DETAIL_ROW_MORE_INFO:
+                    mod.moreInfo.add(new Pair<>(c.getString(3), c.getString(4)));
+                    break;
+                case DETAIL_ROW_SCREENSHOT:
+                    mod.screenshots.add(c.getString(3));
+                    break;
+            }
         }
         c.close();
+    }
 
-        return mod;
+    /**
+     * Returns the query for {@link #loadModules}, which expects the package names once.
+     * They are resolved to module ids in a common table expression that all four parts use.
+     */
+    private static String getModulesQuery(int packageCount) {
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < packageCount; i++)
+            placeholders.append(", ?");
+
+        // Rows of all four tables, distinguished by the first column and grouped by module
+        String moduleIds = "(SELECT " + ModulesColumns._ID + " FROM " + MODULE_IDS + ")";
+        return "WITH " + MODULE_IDS + " AS (SELECT " + ModulesColumns._ID + " FROM " + ModulesColumns.TABLE_NAME
+                + " WHERE " + ModulesColumns.PREFERRED + " = 1 AND " + ModulesColumns.PKGNAME + " IN (" + placeholders + "))"
+                + " SELECT " + DETAIL_ROW_MODULE + ", " + ModulesColumns._ID + ", " + ModulesColumns._ID + ", "
+                + ModulesColumns.PKGNAME + ", " + ModulesColumns.TITLE + ", "
+                + ModulesColumns.SUMMARY + ", " + ModulesColumns.DESCRIPTION + ", "
+                + ModulesColumns.DESCRIPTION_IS_HTML + ", " + ModulesColumns.AUTHOR + ", "
+                + ModulesColumns.SUPPORT + ", " + ModulesColumns.CREATED + ", "
+                + ModulesColumns.UPDATED
+                + " FROM " + ModulesColumns.TABLE_NAME
+                + " WHERE " + ModulesColumns._ID + " IN " + moduleIds
+                + " UNION ALL SELECT " + DETAIL_ROW_VERSION + ", " + ModuleVersionsColumns.MODULE_ID + ", " + ModuleVersionsColumns._ID + ", "
+                + ModuleVersionsColumns.NAME + ", " + ModuleVersionsColumns.CODE + ", "
+                + ModuleVersionsColumns.DOWNLOAD_LINK + ", " + ModuleVersionsColumns.MD5SUM + ", "
+                + ModuleVersionsColumns.CHANGELOG + ", " + ModuleVersionsColumns.CHANGELOG_IS_HTML + ", "
+                + ModuleVersionsColumns.RELTYPE + ", " + ModuleVersionsColumns.UPLOADED + ", NULL"
+                + " FROM " + ModuleVersionsColumns.TABLE_NAME
+                + " WHERE " + ModuleVersionsColumns.MODULE_ID + " IN " + moduleIds
+                + " UNION ALL SELECT " + DETAIL_ROW_MORE_INFO + ", " + MoreInfoColumns.MODULE_ID + ", " + MoreInfoColumns._ID + ", "
+                + MoreInfoColumns.LABEL + ", " + MoreInfoColumns.VALUE + ", NULL, NULL, NULL, NULL, NULL, NULL, NULL"
+                + " FROM " + MoreInfoColumns.TABLE_NAME
+                + " WHERE " + MoreInfoColumns.MODULE_ID + " IN " + moduleIds
+                + " UNION ALL SELECT " + DETAIL_ROW_SCREENSHOT + ", " + ScreenshotsColumns.MODULE_ID + ", " + ScreenshotsColumns._ID + ", "
+                + ScreenshotsColumns.URL + ", NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL"
+                + " FROM " + ScreenshotsColumns.TABLE_NAME
+                + " WHERE " + ScreenshotsColumns.MODULE_ID + " IN " + moduleIds
+                + " ORDER BY 2, 1, 3";
     }
 
     public static String getModuleSupport(String packageName) {
         return getString(packageName);
     }
 
-    public static void updateModuleLatestVersion(String packageName) {
-        int maxShownReleaseType = RepoLoader.getInstance().getMaxShownReleaseType(packageName).ordinal();
-        sDb.execSQL("UPDATE " + ModulesColumns.TABLE_NAME
-                        + " SET " + ModulesColumns.LATEST_VERSION
-                        + " = (SELECT " + ModuleVersionsColumns._ID + " FROM " + ModuleVersionsColumns.TABLE_NAME + " AS v"
-                        + " WHERE v." + ModuleVersionsColumns.MODULE_ID
-                        + " = " + ModulesColumns.TABLE_NAME + "." + ModulesColumns._ID
-                        + " AND reltype <= ? LIMIT 1)"
-                        + " WHERE " + ModulesColumns.PKGNAME + " = ?",
-                new Object[]{maxShownReleaseType, packageName});
+    /**
+     * Marks one module per package as preferred if the package is provided by multiple
+     * repositories: the one with the newest version, otherwise the one from the repository
+     * which has been configured first. Only packages with duplicates are updated.
+     */
+    public static void updatePreferredModules() {
+        db().execSQL("UPDATE " + ModulesColumns.TABLE_NAME
+                + " SET " + ModulesColumns.PREFERRED + " = (" + ModulesColumns._ID
+                + " = (SELECT p." + ModulesColumns._ID + " FROM " + ModulesColumns.TABLE_NAME + " AS p"
+                + " WHERE p." + ModulesColumns.PKGNAME + " = " + ModulesColumns.TABLE_NAME + "." + ModulesColumns.PKGNAME
+                + " ORDER BY p." + ModulesColumns.NEWEST_CODE + " DESC, p." + ModulesColumns.REPO_ID + " LIMIT 1))"
+                + " WHERE " + ModulesColumns.PREFERRED + " = 0 OR " + ModulesColumns.PKGNAME + " IN"
+                + " (SELECT " + ModulesColumns.PKGNAME + " FROM " + ModulesColumns.TABLE_NAME
+                + " GROUP BY " + ModulesColumns.PKGNAME + " HAVING COUNT(*) > 1)");
     }
 
-    public static void updateAllModulesLatestVersion() {
-        sDb.beginTransaction();
+    /**
+     * Stores the release type chosen for a single module, or {@code null} to use the
+     * global one. The latest version for each release type is already known, so this
+     * only changes which one is used.
+     */
+    public static void updateModuleReleaseType(String packageName, ReleaseType relType) {
+        ContentValues values = new ContentValues();
+        if (relType != null)
+            values.put(ModulesColumns.RELTYPE_OVERRIDE, relType.ordinal());
+        else
+            values.putNull(ModulesColumns.RELTYPE_OVERRIDE);
+        db().beginTransactionNonExclusive();
         try {
-            String[] projection = new String[]{ModulesColumns.PKGNAME};
-            Cursor c = sDb.query(true, ModulesColumns.TABLE_NAME, projection, null, null, null, null, null, null);
-            while (c.moveToNext()) {
-                updateModuleLatestVersion(c.getString(0));
-            }
-            c.close();
-            sDb.setTransactionSuccessful();
+            db().update(ModulesColumns.TABLE_NAME, values, ModulesColumns.PKGNAME + " = ?", new String[]{packageName});
+            updateInstalledModuleUpdate(packageName);
+            db().setTransactionSuccessful();
         } finally {
-            sDb.endTransaction();
+            db().endTransaction();
         }
     }
 
+    public static void updateGlobalReleaseType(ReleaseType relType) {
+        sGlobalReleaseType = relType;
+        updateInstalledModulesUpdates();
+    }
+
+    private static ReleaseType getGlobalReleaseType() {
+        ReleaseType relType = sGlobalReleaseType;
+        if (relType == null) {
+            relType = ReleaseType.fromString(XposedApp.getPreferences().getString("release_type_global", "stable"));
+            sGlobalReleaseType = relType;
+        }
+        return relType;
+    }
+
     public static void insertInstalledModule(InstalledModule installed) {
         ContentValues values = new ContentValues();
         values.put(InstalledModulesColumns.PKGNAME, installed.packageName);
         values.put(InstalledModulesColumns.VERSION_CODE, installed.versionCode);
         values.put(InstalledModulesColumns.VERSION_NAME, installed.versionName);
-        sDb.insertOrThrow(InstalledModulesColumns.TABLE_NAME, null, values);
+        db().beginTransactionNonExclusive();
+        try {
+            db().insertOrThrow(InstalledModulesColumns.TABLE_NAME, null, values);
+            updateInstalledModuleUpdate(installed.packageName);
+            db().setTransactionSuccessful();
+        } finally {
+            db().endTransaction();
+        }
     }
 
     public static void deleteInstalledModule(String packageName) {
-        sDb.delete(InstalledModulesColumns.TABLE_NAME, InstalledModulesColumns.PKGNAME + " = ?", new String[]{packageName});
+        db().delete(InstalledModulesColumns.TABLE_NAME, InstalledModulesColumns.PKGNAME + " = ?", new String[]{packageName});
+        db().delete(InstalledModulesUpdatesColumns.TABLE_NAME, InstalledModulesUpdatesColumns.PKGNAME + " = ?", new String[]{packageName});
     }
 
-    public static void deleteAllInstalledModules() {
-        sDb.delete(InstalledModulesColumns.TABLE_NAME, null, null);
+    /**
+     * Returns the packages found by the last scan of the installed packages, see
+     * {@link ModuleUtil#reloadInstalledModules()}.
+     */
+    public static Map<String, ScannedPackage> getScannedPackages() {
+        Map<String, ScannedPackage> result = new HashMap<>();
+        String[] projection = new String[]{ScannedPackagesColumns.PKGNAME, ScannedPackagesColumns.UPDATE_TIME,
+                ScannedPackagesColumns.IS_MODULE, ScannedPackagesColumns.MIN_VERSION};
+        Cursor c = db().query(ScannedPackagesColumns.TABLE_NAME, projection, null, null, null, null, null);
+        while (c.moveToNext()) {
+            result.put(c.getString(0), new ScannedPackage(c.getLong(1), c.getInt(2) > 0, c.getInt(3)));
+        }
+        c.close();
+        return result;
     }
 
-    public static Cursor queryModuleOverview(int sortingOrder,
-                                             CharSequence filterText) {
-        // Columns
-        String[] projection = new String[]{
+    public static void updateScannedPackages(Map<String, ScannedPackage> changed, Collection<String> removed) {
+        if (changed.isEmpty() && removed.isEmpty())
+            return;
+
+        db().beginTransactionNonExclusive();
+        SQLiteStatement insert = db().compileStatement("INSERT OR REPLACE INTO " + ScannedPackagesColumns.TABLE_NAME
+                + " (" + ScannedPackagesColumns.PKGNAME + ", " + ScannedPackagesColumns.UPDATE_TIME + ", "
+                + ScannedPackagesColumns.IS_MODULE + ", " + ScannedPackagesColumns.MIN_VERSION + ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement delete = db().compileStatement("DELETE FROM " + ScannedPackagesColumns.TABLE_NAME
+                + " WHERE " + ScannedPackagesColumns.PKGNAME + " = ?");
+        try {
+            for (Map.Entry<String, ScannedPackage> entry : changed.entrySet()) {
+                ScannedPackage scanned = entry.getValue();
+                insert.bindString(1, entry.getKey());
+                insert.bindLong(2, scanned.updateTime);
+                insert.bindLong(3, scanned.isModule ? 1 : 0);
+                insert.bindLong(4, scanned.minVersion);
+                insert.executeInsert();
+            }
+            for (String packageName : removed) {
+                delete.bindString(1, packageName);
+                delete.executeUpdateDelete();
+            }
+            db().setTransactionSuccessful();
+        } finally {
+            insert.close();
+            delete.close();
+            db().endTransaction();
+        }
+    }
+
+    /**
+     * Recalculates the available updates of all installed modules, which is necessary
+     * after the modules or the global release type have changed.
+     */
+    public static void updateInstalledModulesUpdates() {
+        db().beginTransactionNonExclusive();
+        try {
+            db().delete(InstalledModulesUpdatesColumns.TABLE_NAME, null, null);
+            db().execSQL(RepoDbDefinitions.getSqlInsertInstalledModulesUpdates(getGlobalReleaseType(), false));
+            db().setTransactionSuccessful();
+        } finally {
+            db().endTransaction();
+        }
+    }
+
+    private static void updateInstalledModuleUpdate(String packageName) {
+        String[] whereArgs = new String[]{packageName};
+        db().delete(InstalledModulesUpdatesColumns.TABLE_NAME, InstalledModulesUpdatesColumns.PKGNAME + " = ?", whereArgs);
+        db().execSQL(RepoDbDefinitions.getSqlInsertInstalledModulesUpdates(getGlobalReleaseType(), true), whereArgs);
+    }
+
+    /**
+     * Returns up to {@code limit} rows of the module overview, starting after the row
+     * identified by {@code after} (or at the beginning if it's {@code null}).
+     * <p>
+     * The rows are continued with a condition on the sort keys instead of an offset,
+     * so later pages don't have to step over all the rows before them again.
+     */
+    public static Cursor queryModuleOverview(int sortingOrder, CharSequence filterText,
+                                             OverviewKey after, int limit) {
+        List<String> args = new ArrayList<>();
+        String sql = getOverviewQuery(sortingOrder, filterText, after, limit, getGlobalReleaseType(),
+                ModuleUtil.getInstance().getFrameworkPackageName(), getHiddenLanguages(), args);
+        Cursor c = db().rawQuery(sql, args.toArray(new String[0]));
+
+        // Cache column indexes
+        OverviewColumnsIndexes.fillFromCursor(c);
+
+        return c;
+    }
+
+    /**
+     * Builds the query for {@link #queryModuleOverview} and adds its arguments to {@code args}.
+     * The languages are only hidden if there is no filter text.
+     * <p>
+     * The status of a module (framework, update available, installed) is sorted before
+     * the title, but it can only be set for the framework and the installed modules. These
+     * few rows are sorted separately, while the rows of all other modules are read in order
+     * from the index for the sort order, up to the end of the page. Both parts are merged,
+     * so a page never costs more than the installed modules plus two pages. Search results
+     * are ordered by relevance first, which requires sorting all matches instead.
+     */
+    static String getOverviewQuery(int sortingOrder, CharSequence filterText, OverviewKey after, int limit,
+                                   ReleaseType releaseType, String frameworkPackageName,
+                                   EnumSet<ModuleLanguage> hiddenLanguages, List<String> args) {
+        String ftsQuery = !TextUtils.isEmpty(filterText) ? buildFtsQuery(filterText) : null;
+
+        String relevance = "0";
+        List<String> relevanceArgs = new ArrayList<>();
+        if (ftsQuery != null) {
+            // Matches in the title first, then in the summary or author, then the rest
+            relevance = "(CASE WHEN m." + ModulesColumns.TITLE + " LIKE ? THEN 0"
+                    + " WHEN m." + ModulesColumns.SUMMARY + " LIKE ? OR m." + ModulesColumns.AUTHOR + " LIKE ? THEN 1"
+                    + " ELSE 2 END)";
+            String filterTextArg = "%" + filterText + "%";
+            relevanceArgs.addAll(Arrays.asList(filterTextArg, filterTextArg, filterTextArg));
+        }
+
+        // Conditions
+        StringBuilder filter = new StringBuilder(ModulesColumns.PREFERRED + " = 1");
+        List<String> filterArgs = new ArrayList<>();
+        if (ftsQuery != null) {
+            filter.append(" AND m." + ModulesColumns._ID + " IN (SELECT " + ModulesFtsColumns.DOCID
+                    + " FROM " + ModulesFtsColumns.TABLE_NAME
+                    + " WHERE " + ModulesFtsColumns.TABLE_NAME + " MATCH ?)");
+            filterArgs.add(ftsQuery);
+        } else if (!TextUtils.isEmpty(filterText)) {
+            filter.append(" AND (m." + ModulesColumns.TITLE + " LIKE ?" + " OR m." + ModulesColumns.SUMMARY + " LIKE ?" + " OR m." + ModulesColumns.DESCRIPTION + " LIKE ?" + " OR m." + ModulesColumns.AUTHOR + " LIKE ?)");
+            String filterTextArg = "%" + filterText + "%";
+            filterArgs.addAll(Arrays.asList(filterTextArg, filterTextArg, filterTextArg, filterTextArg));
+        } else if (!hiddenLanguages.isEmpty()) {
+            // Use the languages to show, which allows to use the index
+            filter.append(" AND m." + ModulesColumns.LANGUAGE + " IN (");
+            boolean first = true;
+            for (ModuleLanguage language : EnumSet.complementOf(hiddenLanguages)) {
+                if (!first)
+                    filter.append(", ");
+                filter.append(language.ordinal());
+                first = false;
+            }
+            filter.append(")");
+        }
+
+        // Sorting order, the ID makes it unambiguous so that pages can be continued
+        List<SortKey> leadingKeys = new ArrayList<>();
+        if (ftsQuery != null) {
+            leadingKeys.add(new SortKey(OverviewColumns.RELEVANCE, OverviewColumns.RELEVANCE, false,
+                    after != null ? after.relevance : null));
+        }
+        if (sortingOrder == SORT_CREATED) {
+            leadingKeys.add(new SortKey(OverviewColumns.CREATED, "m." + ModulesColumns.CREATED, true,
+                    after != null ? after.created : null));
+        } else if (sortingOrder == SORT_UPDATED) {
+            leadingKeys.add(new SortKey(OverviewColumns.UPDATED, "m." + ModulesColumns.UPDATED, true,
+                    after != null ? after.updated : null));
+        }
+        List<SortKey> statusKeys = Arrays.asList(
+                new SortKey(OverviewColumns.IS_FRAMEWORK, OverviewColumns.IS_FRAMEWORK, true,
+                        after != null ? after.isFramework : null),
+                new SortKey(OverviewColumns.HAS_UPDATE, OverviewColumns.HAS_UPDATE, true,
+                        after != null ? after.hasUpdate : null),
+                new SortKey(OverviewColumns.IS_INSTALLED, OverviewColumns.IS_INSTALLED, true,
+                        after != null ? after.isInstalled : null));
+        List<SortKey> trailingKeys = Arrays.asList(
+                new SortKey(OverviewColumns.TITLE + " COLLATE NOCASE", "m." + ModulesColumns.TITLE + " COLLATE NOCASE", false,
+                        after != null ? after.title : null),
+                new SortKey(OverviewColumns.PKGNAME, "m." + ModulesColumns.PKGNAME, false,
+                        after != null ? after.pkgname : null),
+                new SortKey(OverviewColumns._ID, "m." + ModulesColumns._ID, false,
+                        after != null ? after.id : null));
+        List<SortKey> allKeys = new ArrayList<>(leadingKeys);
+        allKeys.addAll(statusKeys);
+        allKeys.addAll(trailingKeys);
+        List<SortKey> otherKeys = new ArrayList<>(leadingKeys);
+        otherKeys.addAll(trailingKeys);
+
+        String versionJoin = " LEFT JOIN " + ModuleVersionsColumns.TABLE_NAME + " AS v"
+                + " ON v." + ModuleVersionsColumns._ID + " = " + RepoDbDefinitions.getLatestVersionIdExpression("m", releaseType);
+        String installedPackages = "(SELECT " + InstalledModulesColumns.PKGNAME + " FROM " + InstalledModulesColumns.TABLE_NAME + ")";
+
+        // The framework and the installed modules, only these can have a status
+        StringBuilder statusWhere = new StringBuilder(filter).append(" AND (m." + ModulesColumns.PKGNAME + " = '")
+                .append(frameworkPackageName).append("' OR m." + ModulesColumns.PKGNAME + " IN ").append(installedPackages).append(")");
+        List<String> statusArgs = new ArrayList<>(filterArgs);
+        if (after != null)
+            appendKeysetCondition(statusWhere, statusArgs, allKeys, false);
+        String statusRows = SQLiteQueryBuilder.buildQueryString(false,
+                ModulesColumns.TABLE_NAME + " AS m" + versionJoin
+                        + " LEFT JOIN " + InstalledModulesColumns.TABLE_NAME + " AS i"
+                        + " ON i." + InstalledModulesColumns.PKGNAME + " = m." + ModulesColumns.PKGNAME,
+                getOverviewProjection(true, relevance, frameworkPackageName), statusWhere.toString(), null, null,
+                getOrderBy(allKeys, true), limit > 0 ? String.valueOf(limit) : null);
+        args.addAll(relevanceArgs);
+        args.addAll(statusArgs);
+
+        // All other modules, in the order of the index unless they are ordered by relevance
+        StringBuilder otherWhere = new StringBuilder(filter).append(" AND m." + ModulesColumns.PKGNAME + " != '")
+                .append(frameworkPackageName).append("' AND m." + ModulesColumns.PKGNAME + " NOT IN ").append(installedPackages);
+        List<String> otherArgs = new ArrayList<>(filterArgs);
+        if (after != null) {
+            if (after.isFramework == 0 && after.hasUpdate == 0 && after.isInstalled == 0)
+                appendKeysetCondition(otherWhere, otherArgs, otherKeys, false);
+            else if (!leadingKeys.isEmpty())
+                // These come after a module with a status and the same leading keys
+                appendKeysetCondition(otherWhere, otherArgs, leadingKeys, true);
+        }
+        String otherRows = SQLiteQueryBuilder.buildQueryString(false,
+                ModulesColumns.TABLE_NAME + " AS m"
+                        // Without statistics, the planner might use the index of the languages and sort all rows
+                        + (ftsQuery == null ? " INDEXED BY " + getOverviewIndex(sortingOrder) : "") + versionJoin,
+                getOverviewProjection(false, relevance, frameworkPackageName), otherWhere.toString(), null, null,
+                getOrderBy(otherKeys, true), limit > 0 ? String.valueOf(limit) : null);
+        args.addAll(relevanceArgs);
+        args.addAll(otherArgs);
+
+        // Both parts are sorted, so this only sorts two pages at most
+        return "SELECT * FROM (" + statusRows + ") UNION ALL SELECT * FROM (" + otherRows + ")"
+                + " ORDER BY " + getOrderBy(allKeys, false) + (limit > 0 ? " LIMIT " + limit : "");
+    }
+
+    /**
+     * Returns the index that lists the modules without a status in the given order.
+     */
+    private static String getOverviewIndex(int sortingOrder) {
+        if (sortingOrder == SORT_CREATED)
+            return ModulesColumns.IDX_CREATED;
+        else if (sortingOrder == SORT_UPDATED)
+            return ModulesColumns.IDX_UPDATED;
+        else
+            return ModulesColumns.IDX_TITLE;
+    }
+
+    private static String[] getOverviewProjection(boolean withStatus, String relevance, String frameworkPackageName) {
+        if (!withStatus) {
+            return new String[]{
+                    "m." + ModulesColumns._ID,
+                    "m." + ModulesColumns.PKGNAME,
+                    "m." + ModulesColumns.TITLE,
+                    "m." + ModulesColumns.SUMMARY,
+                    "m." + ModulesColumns.CREATED,
+                    "m." + ModulesColumns.UPDATED,
+
+                    "v." + ModuleVersionsColumns.NAME + " AS " + OverviewColumns.LATEST_VERSION,
+                    "NULL AS " + OverviewColumns.INSTALLED_VERSION,
+
+                    "0 AS " + OverviewColumns.IS_FRAMEWORK,
+                    "0 AS " + OverviewColumns.IS_INSTALLED,
+                    "0 AS " + OverviewColumns.HAS_UPDATE,
+
+                    relevance + " AS " + OverviewColumns.RELEVANCE,
+            };
+        }
+
+        return new String[]{
                 "m." + ModulesColumns._ID,
                 "m." + ModulesColumns.PKGNAME,
                 "m." + ModulesColumns.TITLE,
@@ -356,7 +766,7 @@ public final class RepoDb extends SQLiteOpenHelper {
                 "v." + ModuleVersionsColumns.NAME + " AS " + OverviewColumns.LATEST_VERSION,
                 "i." + InstalledModulesColumns.VERSION_NAME + " AS " + OverviewColumns.INSTALLED_VERSION,
 
-                "(CASE WHEN m." + ModulesColumns.PKGNAME + " = '" + ModuleUtil.getInstance().getFrameworkPackageName()
+                "(CASE WHEN m." + ModulesColumns.PKGNAME + " = '" + frameworkPackageName
                         + "' THEN 1 ELSE 0 END) AS " + OverviewColumns.IS_FRAMEWORK,
 
                 "(CASE WHEN i." + InstalledModulesColumns.VERSION_NAME + " IS NOT NULL"
@@ -364,59 +774,104 @@ public final class RepoDb extends SQLiteOpenHelper {
 
                 "(CASE WHEN v." + ModuleVersionsColumns.CODE + " > " + InstalledModulesColumns.VERSION_CODE
                         + " THEN 1 ELSE 0 END) AS " + OverviewColumns.HAS_UPDATE,
+
+                relevance + " AS " + OverviewColumns.RELEVANCE,
         };
+    }
 
-        // Conditions
-        StringBuilder where = new StringBuilder(ModulesColumns.PREFERRED + " = 1");
-        String[] whereArgs = null;
-        if (!TextUtils.isEmpty(filterText)) {
-            where.append(" AND (m." + ModulesColumns.TITLE + " LIKE ?" + " OR m." + ModulesColumns.SUMMARY + " LIKE ?" + " OR m." + ModulesColumns.DESCRIPTION + " LIKE ?" + " OR m." + ModulesColumns.AUTHOR + " LIKE ?)");
-            String filterTextArg = "%" + filterText + "%";
-            whereArgs = new String[]{filterTextArg, filterTextArg, filterTextArg, filterTextArg};
-        } else {
-            SharedPreferences prefs = context.getSharedPreferences(BuildConfig.APPLICATION_ID + "_preferences", MODE_PRIVATE);
+    private static String getOrderBy(List<SortKey> keys, boolean expressions) {
+        StringBuilder sbOrder = new StringBuilder();
+        for (SortKey key : keys) {
+            if (sbOrder.length() > 0)
+                sbOrder.append(", ");
+            sbOrder.append(expressions ? key.expression : key.column);
+            if (key.descending)
+                sbOrder.append(" DESC");
+        }
+        return sbOrder.toString();
+    }
 
-            if (prefs.getBoolean("ignore_chinese", false)) {
-                for (char ch : "的一是不了人我在有他这为中设微模块淘".toCharArray()) {
-                    where.append(" AND NOT (m." + ModulesColumns.TITLE + " LIKE '%").append(ch).append("%'").append(" OR m.").append(ModulesColumns.SUMMARY).append(" LIKE '%").append(ch).append("%'").append(" OR m.").append(ModulesColumns.DESCRIPTION).append(" LIKE '%").append(ch).append("%')");
-                }
+    /**
+     * Appends a condition for the rows after the values of the keys, or also at them if
+     * {@code inclusive}. The first key is bounded on its own as well, so that an index
+     * starting with it can be searched for the position instead of being read up to it.
+     */
+    private static void appendKeysetCondition(StringBuilder where, List<String> args, List<SortKey> keys, boolean inclusive) {
+        // (k1 >= v1) AND ((k1 > v1) OR (k1 = v1 AND k2 > v2) OR ...), with "<" for descending keys
+        SortKey first = keys.get(0);
+        where.append(" AND ").append(first.expression).append(first.descending ? " <= " : " >= ");
+        appendKeyValue(where, args, first.value);
+        where.append(" AND (");
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0)
+                where.append(" OR ");
+            where.append("(");
+            for (int j = 0; j < i; j++) {
+                where.append(keys.get(j).expression).append(" = ");
+                appendKeyValue(where, args, keys.get(j).value);
+                where.append(" AND ");
+            }
+            where.append(keys.get(i).expression).append(keys.get(i).descending ? " < " : " > ");
+            appendKeyValue(where, args, keys.get(i).value);
+            where.append(")");
+        }
+        if (inclusive) {
+            where.append(" OR (");
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0)
+                    where.append(" AND ");
+                where.append(keys.get(i).expression).append(" = ");
+                appendKeyValue(where, args, keys.get(i).value);
             }
+            where.append(")");
         }
+        where.append(")");
+    }
 
-        // Sorting order
-        StringBuilder sbOrder = new StringBuilder();
-        if (sortingOrder == SORT_CREATED) {
-            sbOrder.append(OverviewColumns.CREATED);
-            sbOrder.append(" DESC,");
-        } else if (sortingOrder == SORT_UPDATED) {
-            sbOrder.append(OverviewColumns.UPDATED);
-            sbOrder.append(" DESC,");
-        }
-        sbOrder.append(OverviewColumns.IS_FRAMEWORK);
-        sbOrder.append(" DESC, ");
-        sbOrder.append(OverviewColumns.HAS_UPDATE);
-        sbOrder.append(" DESC, ");
-        sbOrder.append(OverviewColumns.IS_INSTALLED);
-        sbOrder.append(" DESC, ");
-        sbOrder.append("m.");
-        sbOrder.append(OverviewColumns.TITLE);
-        sbOrder.append(" COLLATE NOCASE, ");
-        sbOrder.append("m.");
-        sbOrder.append(OverviewColumns.PKGNAME);
-
-        // Query
-        Cursor c = sDb.query(
-                ModulesColumns.TABLE_NAME + " AS m"
-                        + " LEFT JOIN " + ModuleVersionsColumns.TABLE_NAME + " AS v"
-                        + " ON v." + ModuleVersionsColumns._ID + " = m." + ModulesColumns.LATEST_VERSION
-                        + " LEFT JOIN " + InstalledModulesColumns.TABLE_NAME + " AS i"
-                        + " ON i." + InstalledModulesColumns.PKGNAME + " = m." + ModulesColumns.PKGNAME,
-                projection, where.toString(), whereArgs, null, null, sbOrder.toString());
+    private static void appendKeyValue(StringBuilder sb, List<String> args, Object value) {
+        // Numbers are inlined, as a bound string would never be equal to the computed columns
+        if (value instanceof String) {
+            sb.append("?");
+            args.add((String) value);
+        } else {
+            sb.append(value);
+        }
+    }
 
-        // Cache column indexes
-        OverviewColumnsIndexes.fillFromCursor(c);
+    /**
+     * Returns the languages of modules which shouldn't be listed unless searched for.
+     */
+    private static EnumSet<ModuleLanguage> getHiddenLanguages() {
+        SharedPreferences prefs = XposedApp.getPreferences();
+        EnumSet<ModuleLanguage> result = EnumSet.noneOf(ModuleLanguage.class);
+        if (prefs.getBoolean("ignore_chinese", false))
+            result.add(ModuleLanguage.CHINESE);
+        return result;
+    }
 
-        return c;
+    /**
+     * Converts the search text to a prefix query for the full-text index, or returns
+     * {@code null} if the text can't be tokenized like the index (e.g. for CJK text).
+     */
+    private static String buildFtsQuery(CharSequence filterText) {
+        StringBuilder query = new StringBuilder();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= filterText.length(); i++) {
+            char c = i < filterText.length() ? filterText.charAt(i) : ' ';
+            if (c >= 0x80)
+                return null;
+
+            if (Character.isLetterOrDigit(c)) {
+                // Lower case also keeps words like OR from being taken as operators
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                if (query.length() > 0)
+                    query.append(' ');
+                query.append(token).append('*');
+                token.setLength(0);
+            }
+        }
+        return query.length() > 0 ? query.toString() : null;
     }
 
     public static String getFrameworkUpdateVersion() {
@@ -429,9 +884,10 @@ public final class RepoDb extends SQLiteOpenHelper {
 
     private static String getFirstUpdate(boolean framework) {
         String[] projection = new String[]{InstalledModulesUpdatesColumns.LATEST_NAME};
-        String where = ModulesColumns.PKGNAME + (framework ? " = ?" : " != ?");
+        // Only modules with updates are stored, so this stops at the first row at the latest
+        String where = InstalledModulesUpdatesColumns.PKGNAME + (framework ? " = ?" : " != ?");
         String[] whereArgs = new String[]{ModuleUtil.getInstance().getFrameworkPackageName()};
-        Cursor c = sDb.query(InstalledModulesUpdatesColumns.VIEW_NAME, projection, where, whereArgs, null, null, null, "1");
+        Cursor c = db().query(InstalledModulesUpdatesColumns.TABLE_NAME, projection, where, whereArgs, null, null, null, "1");
         String latestVersion = null;
         if (c.moveToFirst())
             latestVersion = c.getString(c.getColumnIndexOrThrow(InstalledModulesUpdatesColumns.LATEST_NAME));
@@ -441,18 +897,47 @@ public final class RepoDb extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createTables(db);
+        // RepoLoader notices the empty repository table and clears its caches
+    }
+
+    static void createTables(SQLiteDatabase db) {
         db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_REPOSITORIES);
         db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_MODULES);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULES_PREFERENCE);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULES_PREFERRED);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULES_TITLE);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULES_UPDATED);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULES_CREATED);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULES_LANGUAGE);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULES_REPO_ID);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_MODULES_FTS);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_TRIGGER_MODULES_FTS_INSERT);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_TRIGGER_MODULES_FTS_DELETE);
         db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_MODULE_VERSIONS);
         db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MODULE_VERSIONS_MODULE_ID);
         db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_MORE_INFO);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_MORE_INFO_MODULE_ID);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_SCREENSHOTS);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_INDEX_SCREENSHOTS_MODULE_ID);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_INSTALLED_MODULES);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_INSTALLED_MODULES_UPDATES);
+        db.execSQL(RepoDbDefinitions.SQL_CREATE_TABLE_SCANNED_PACKAGES);
+    }
 
-        RepoLoader.getInstance().clear(false);
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Applies to every connection, unlike executing the pragma
+        db.setForeignKeyConstraintsEnabled(true);
+        // Makes modules replaced on conflict fire the delete trigger of the search index.
+        // Only the primary connection writes, and it stays open as long as the database.
+        db.execSQL("PRAGMA recursive_triggers=ON");
     }
 
-    private void createTempTables(SQLiteDatabase db) {
-        db.execSQL(RepoDbDefinitions.SQL_CREATE_TEMP_TABLE_INSTALLED_MODULES);
-        db.execSQL(RepoDbDefinitions.SQL_CREATE_TEMP_VIEW_INSTALLED_MODULES_UPDATES);
+    private void resetInstalledModules(SQLiteDatabase db) {
+        // The installed modules are collected again after each start
+        db.delete(InstalledModulesColumns.TABLE_NAME, null, null);
+        db.delete(InstalledModulesUpdatesColumns.TABLE_NAME, null, null);
     }
 
     @Override
@@ -460,11 +945,19 @@ public final class RepoDb extends SQLiteOpenHelper {
         // This is only a cache, so simply drop & recreate the tables
         db.execSQL("DROP TABLE IF EXISTS " + RepositoriesColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + ModulesColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + ModulesFtsColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + ModuleVersionsColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + MoreInfoColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + ScreenshotsColumns.TABLE_NAME);
 
         db.execSQL("DROP TABLE IF EXISTS " + InstalledModulesColumns.TABLE_NAME);
-        db.execSQL("DROP VIEW IF EXISTS " + InstalledModulesUpdatesColumns.VIEW_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + ScannedPackagesColumns.TABLE_NAME);
+        // Used to be a view
+        Cursor c = db.rawQuery("SELECT type FROM sqlite_master WHERE name = ?",
+                new String[]{InstalledModulesUpdatesColumns.TABLE_NAME});
+        if (c.moveToFirst())
+            db.execSQL("DROP " + c.getString(0).toUpperCase(Locale.ROOT) + " " + InstalledModulesUpdatesColumns.TABLE_NAME);
+        c.close();
 
         onCreate(db);
     }
@@ -474,6 +967,293 @@ public final class RepoDb extends SQLiteOpenHelper {
         onUpgrade(db, oldVersion, newVersion);
     }
 
+    /**
+     * The sort key values of a row of the module overview, which
+     * {@link #queryModuleOverview} continues after.
+     */
+    public static final class OverviewKey {
+        private final long id;
+        private final String pkgname;
+        private final String title;
+        private final long created;
+        private final long updated;
+        private final long isFramework;
+        private final long isInstalled;
+        private final long hasUpdate;
+        private final long relevance;
+
+        /**
+         * Reads the values from the current row of a cursor returned by
+         * {@link #queryModuleOverview}.
+         */
+        public OverviewKey(Cursor cursor) {
+            id = cursor.getLong(OverviewColumnsIndexes.ID);
+            pkgname = cursor.getString(OverviewColumnsIndexes.PKGNAME);
+            title = cursor.getString(OverviewColumnsIndexes.TITLE);
+            created = cursor.getLong(OverviewColumnsIndexes.CREATED);
+            updated = cursor.getLong(OverviewColumnsIndexes.UPDATED);
+            isFramework = cursor.getLong(OverviewColumnsIndexes.IS_FRAMEWORK);
+            isInstalled = cursor.getLong(OverviewColumnsIndexes.IS_INSTALLED);
+            hasUpdate = cursor.getLong(OverviewColumnsIndexes.HAS_UPDATE);
+            relevance = cursor.getLong(OverviewColumnsIndexes.RELEVANCE);
+        }
+
+        OverviewKey(long id, String pkgname, String title, long created, long updated,
+                    long isFramework, long isInstalled, long hasUpdate, long relevance) {
+            this.id = id;
+            this.pkgname = pkgname;
+            this.title = title;
+            this.created = created;
+            this.updated = updated;
+            this.isFramework = isFramework;
+            this.isInstalled = isInstalled;
+            this.hasUpdate = hasUpdate;
+            this.relevance = relevance;
+        }
+    }
+
+    /**
+     * A query whose plan must not scan a whole table. The plan may only scan the tables,
+     * indexes or subqueries named in {@link #boundedScans}, which this query reads only up
+     * to its LIMIT or for a bound list of values.
+     */
+    static final class CheckedQuery {
+        final String name;
+        final String sql;
+        final String[] args;
+        final String[] boundedScans;
+
+        CheckedQuery(String name, String sql, String[] args, String... boundedScans) {
+            this.name = name;
+            this.sql = sql;
+            this.args = args;
+            this.boundedScans = boundedScans;
+        }
+
+        /**
+         * Returns whether a step of the plan of this query reads a whole table.
+         */
+        boolean isFullScan(String detail) {
+            if (!detail.startsWith("SCAN "))
+                return false;
+            for (String boundedScan : boundedScans) {
+                if (detail.contains(boundedScan))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A column that the module overview is sorted by, with the value to continue after.
+     */
+    private static final class SortKey {
+        // As named in the result, and as used in the query of a part of it
+        final String column;
+        final String expression;
+        final boolean descending;
+        final Object value;
+
+        SortKey(String column, String expression, boolean descending, Object value) {
+            this.column = column;
+            this.expression = expression;
+            this.descending = descending;
+            this.value = value;
+        }
+    }
+
+    /**
+     * What a scan of the installed packages has found out about a package.
+     */
+    public static final class ScannedPackage {
+        public final long updateTime;
+        public final boolean isModule;
+        public final int minVersion;
+
+        public ScannedPackage(long updateTime, boolean isModule, int minVersion) {
+            this.updateTime = updateTime;
+            this.isModule = isModule;
+            this.minVersion = minVersion;
+        }
+    }
+
+    /**
+     * Inserts modules with their versions and additional information using statements
+     * that are compiled once and rebound for every row.
+     */
+    public static final class ModuleInserter implements Closeable {
+        private final long mRepoId;
+        private final SQLiteStatement mInsertModule;
+        private final SQLiteStatement mInsertVersion;
+        private final SQLiteStatement mInsertMoreInfo;
+        private final SQLiteStatement mInsertScreenshot;
+        private final SQLiteStatement mUpdateLatestVersions;
+        private int mRowCount = 0;
+
+        private ModuleInserter(long repoId) {
+            mRepoId = repoId;
+            mInsertModule = db().compileStatement(buildInsert(ModulesColumns.TABLE_NAME,
+                    ModulesColumns.REPO_ID,
+                    ModulesColumns.PKGNAME,
+                    ModulesColumns.TITLE,
+                    ModulesColumns.SUMMARY,
+                    ModulesColumns.DESCRIPTION,
+                    ModulesColumns.DESCRIPTION_IS_HTML,
+                    ModulesColumns.AUTHOR,
+                    ModulesColumns.SUPPORT,
+                    ModulesColumns.CREATED,
+                    ModulesColumns.UPDATED,
+                    ModulesColumns.CONTENT_HASH,
+                    ModulesColumns.RELTYPE_OVERRIDE,
+                    ModulesColumns.NEWEST_CODE,
+                    ModulesColumns.LANGUAGE));
+            mInsertVersion = db().compileStatement(buildInsert(ModuleVersionsColumns.TABLE_NAME,
+                    ModuleVersionsColumns.MODULE_ID,
+                    ModuleVersionsColumns.NAME,
+                    ModuleVersionsColumns.CODE,
+                    ModuleVersionsColumns.DOWNLOAD_LINK,
+                    ModuleVersionsColumns.MD5SUM,
+                    ModuleVersionsColumns.CHANGELOG,
+                    ModuleVersionsColumns.CHANGELOG_IS_HTML,
+                    ModuleVersionsColumns.RELTYPE,
+                    ModuleVersionsColumns.UPLOADED));
+            mInsertMoreInfo = db().compileStatement(buildInsert(MoreInfoColumns.TABLE_NAME,
+                    MoreInfoColumns.MODULE_ID,
+                    MoreInfoColumns.LABEL,
+                    MoreInfoColumns.VALUE));
+            mInsertScreenshot = db().compileStatement(buildInsert(ScreenshotsColumns.TABLE_NAME,
+                    ScreenshotsColumns.MODULE_ID,
+                    ScreenshotsColumns.URL));
+            mUpdateLatestVersions = db().compileStatement("UPDATE " + ModulesColumns.TABLE_NAME
+                    + " SET " + ModulesColumns.LATEST_STABLE + " = ?, "
+                    + ModulesColumns.LATEST_BETA + " = ?, "
+                    + ModulesColumns.LATEST_EXPERIMENTAL + " = ?"
+                    + " WHERE " + ModulesColumns._ID + " = ?");
+        }
+
+        private static String buildInsert(String table, String... columns) {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+            StringBuilder values = new StringBuilder(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                    values.append(", ");
+                }
+                sql.append(columns[i]);
+                values.append('?');
+            }
+            return sql.append(values).append(')').toString();
+        }
+
+        private static void bindStringOrNull(SQLiteStatement stmt, int index, String value) {
+            if (value != null)
+                stmt.bindString(index, value);
+            else
+                stmt.bindNull(index);
+        }
+
+        public void insert(Module mod) {
+            SQLiteStatement stmt = mInsertModule;
+            stmt.bindLong(1, mRepoId);
+            bindStringOrNull(stmt, 2, mod.packageName);
+            bindStringOrNull(stmt, 3, mod.name);
+            bindStringOrNull(stmt, 4, mod.summary);
+            bindStringOrNull(stmt, 5, mod.description);
+            stmt.bindLong(6, mod.descriptionIsHtml ? 1 : 0);
+            bindStringOrNull(stmt, 7, mod.author);
+            bindStringOrNull(stmt, 8, mod.support);
+            stmt.bindLong(9, mod.created);
+            stmt.bindLong(10, mod.updated);
+            stmt.bindString(11, mod.getContentHash());
+            ReleaseType relTypeOverride = RepoLoader.getInstance().getReleaseTypeLocal(mod.packageName);
+            if (relTypeOverride != null)
+                stmt.bindLong(12, relTypeOverride.ordinal());
+            else
+                stmt.bindNull(12);
+            if (!mod.versions.isEmpty()) {
+                int newestCode = Integer.MIN_VALUE;
+                for (ModuleVersion version : mod.versions)
+                    newestCode = Math.max(newestCode, version.code);
+                stmt.bindLong(13, newestCode);
+            } else {
+                stmt.bindNull(13);
+            }
+            stmt.bindLong(14, ModuleLanguage.classify(mod.name, mod.summary, mod.description).ordinal());
+            long moduleId = stmt.executeInsert();
+            mRowCount++;
+
+            // The first downloadable version of each release type (or a more stable one)
+            long[] latestVersionIds = new long[ReleaseType.values().length];
+            Arrays.fill(latestVersionIds, -1);
+            stmt = mInsertVersion;
+            for (ModuleVersion version : mod.versions) {
+                stmt.bindLong(1, moduleId);
+                bindStringOrNull(stmt, 2, version.name);
+                stmt.bindLong(3, version.code);
+                bindStringOrNull(stmt, 4, version.downloadLink);
+                bindStringOrNull(stmt, 5, version.md5sum);
+                bindStringOrNull(stmt, 6, version.changelog);
+                stmt.bindLong(7, version.changelogIsHtml ? 1 : 0);
+                stmt.bindLong(8, version.relType.ordinal());
+                stmt.bindLong(9, version.uploaded);
+                long versionId = stmt.executeInsert();
+                mRowCount++;
+                if (version.downloadLink == null)
+                    continue;
+                for (int i = version.relType.ordinal(); i < latestVersionIds.length; i++) {
+                    if (latestVersionIds[i] == -1)
+                        latestVersionIds[i] = versionId;
+                }
+            }
+
+            // Less stable release types include all more stable versions
+            if (latestVersionIds[latestVersionIds.length - 1] != -1) {
+                stmt = mUpdateLatestVersions;
+                for (int i = 0; i < latestVersionIds.length; i++) {
+                    if (latestVersionIds[i] != -1)
+                        stmt.bindLong(i + 1, latestVersionIds[i]);
+                    else
+                        stmt.bindNull(i + 1);
+                }
+                stmt.bindLong(latestVersionIds.length + 1, moduleId);
+                stmt.executeUpdateDelete();
+            }
+
+            stmt = mInsertMoreInfo;
+            for (Pair<String, String> moreInfoEntry : mod.moreInfo) {
+                stmt.bindLong(1, moduleId);
+                bindStringOrNull(stmt, 2, moreInfoEntry.first);
+                bindStringOrNull(stmt, 3, moreInfoEntry.second);
+                stmt.executeInsert();
+                mRowCount++;
+            }
+
+            stmt = mInsertScreenshot;
+            for (String screenshot : mod.screenshots) {
+                stmt.bindLong(1, moduleId);
+                stmt.bindString(2, screenshot);
+                stmt.executeInsert();
+                mRowCount++;
+            }
+        }
+
+        /**
+         * Returns the number of rows inserted so far.
+         */
+        public int getRowCount() {
+            return mRowCount;
+        }
+
+        @Override
+        public void close() {
+            mInsertModule.close();
+            mInsertVersion.close();
+            mInsertMoreInfo.close();
+            mInsertScreenshot.close();
+            mUpdateLatestVersions.close();
+        }
+    }
+
     public static class RowNotFoundException extends RuntimeException {
         private static final long serialVersionUID = -396324186622439535L;
 
@@ -4,7 +4,7 @@ import android.database.Cursor;
 import android.provider.BaseColumns;
 
 public class RepoDbDefinitions {
-    static final int DATABASE_VERSION = 4;
+    static final int DATABASE_VERSION = 16;
     static final String DATABASE_NAME = "repo_cache.db";
     static final String SQL_CREATE_TABLE_REPOSITORIES = "CREATE TABLE "
             + RepositoriesColumns.TABLE_NAME + " (" + RepositoriesColumns._ID
@@ -26,11 +26,80 @@ public class RepoDbDefinitions {
             + ModulesColumns.AUTHOR + " TEXT, " + ModulesColumns.SUPPORT
             + " TEXT, " + ModulesColumns.CREATED + " INTEGER DEFAULT -1, "
             + ModulesColumns.UPDATED + " INTEGER DEFAULT -1, "
+            + ModulesColumns.CONTENT_HASH + " TEXT, "
+            + ModulesColumns.NEWEST_CODE + " INTEGER, "
+            + ModulesColumns.LANGUAGE + " INTEGER DEFAULT 0, "
             + ModulesColumns.PREFERRED + " INTEGER DEFAULT 1, "
-            + ModulesColumns.LATEST_VERSION + " INTEGER REFERENCES "
-            + ModuleVersionsColumns.TABLE_NAME + ", " + "UNIQUE ("
+            // No foreign keys, deleting a version would have to search all modules for it
+            + ModulesColumns.LATEST_STABLE + " INTEGER, "
+            + ModulesColumns.LATEST_BETA + " INTEGER, "
+            + ModulesColumns.LATEST_EXPERIMENTAL + " INTEGER, "
+            + ModulesColumns.RELTYPE_OVERRIDE + " INTEGER, " + "UNIQUE ("
             + ModulesColumns.PKGNAME + ", " + ModulesColumns.REPO_ID
             + ") ON CONFLICT REPLACE)";
+    static final String SQL_CREATE_INDEX_MODULES_PREFERENCE = "CREATE INDEX "
+            + ModulesColumns.IDX_PREFERENCE + " ON "
+            + ModulesColumns.TABLE_NAME + " ("
+            + ModulesColumns.PKGNAME + ", "
+            + ModulesColumns.NEWEST_CODE + " DESC, "
+            + ModulesColumns.REPO_ID + ")";
+    static final String SQL_CREATE_INDEX_MODULES_PREFERRED = "CREATE INDEX "
+            + ModulesColumns.IDX_PREFERRED + " ON "
+            + ModulesColumns.TABLE_NAME + " ("
+            + ModulesColumns.PKGNAME + ") WHERE "
+            + ModulesColumns.PREFERRED + " = 1";
+    // For the foreign key, i.e. when a repository is removed, and the modules of a repository
+    static final String SQL_CREATE_INDEX_MODULES_REPO_ID = "CREATE INDEX "
+            + ModulesColumns.IDX_REPO_ID + " ON "
+            + ModulesColumns.TABLE_NAME + " ("
+            + ModulesColumns.REPO_ID + ")";
+    // One per sort order of the overview, for the modules that aren't installed
+    static final String SQL_CREATE_INDEX_MODULES_TITLE = "CREATE INDEX "
+            + ModulesColumns.IDX_TITLE + " ON "
+            + ModulesColumns.TABLE_NAME + " ("
+            + ModulesColumns.TITLE + " COLLATE NOCASE, "
+            + ModulesColumns.PKGNAME + ") WHERE "
+            + ModulesColumns.PREFERRED + " = 1";
+    static final String SQL_CREATE_INDEX_MODULES_UPDATED = "CREATE INDEX "
+            + ModulesColumns.IDX_UPDATED + " ON "
+            + ModulesColumns.TABLE_NAME + " ("
+            + ModulesColumns.UPDATED + " DESC, "
+            + ModulesColumns.TITLE + " COLLATE NOCASE, "
+            + ModulesColumns.PKGNAME + ") WHERE "
+            + ModulesColumns.PREFERRED + " = 1";
+    static final String SQL_CREATE_INDEX_MODULES_CREATED = "CREATE INDEX "
+            + ModulesColumns.IDX_CREATED + " ON "
+            + ModulesColumns.TABLE_NAME + " ("
+            + ModulesColumns.CREATED + " DESC, "
+            + ModulesColumns.TITLE + " COLLATE NOCASE, "
+            + ModulesColumns.PKGNAME + ") WHERE "
+            + ModulesColumns.PREFERRED + " = 1";
+    static final String SQL_CREATE_INDEX_MODULES_LANGUAGE = "CREATE INDEX "
+            + ModulesColumns.IDX_LANGUAGE + " ON "
+            + ModulesColumns.TABLE_NAME + " ("
+            + ModulesColumns.LANGUAGE + ")";
+    static final String SQL_CREATE_TABLE_MODULES_FTS = "CREATE VIRTUAL TABLE "
+            + ModulesFtsColumns.TABLE_NAME + " USING fts4(content=\""
+            + ModulesColumns.TABLE_NAME + "\", "
+            + ModulesFtsColumns.TITLE + ", "
+            + ModulesFtsColumns.SUMMARY + ", "
+            + ModulesFtsColumns.DESCRIPTION + ", "
+            + ModulesFtsColumns.AUTHOR + ")";
+    // The search index has to be updated before the module is deleted from its content table
+    static final String SQL_CREATE_TRIGGER_MODULES_FTS_INSERT = "CREATE TRIGGER "
+            + ModulesFtsColumns.TABLE_NAME + "_ai AFTER INSERT ON "
+            + ModulesColumns.TABLE_NAME + " BEGIN INSERT INTO "
+            + ModulesFtsColumns.TABLE_NAME + " (" + ModulesFtsColumns.DOCID + ", "
+            + ModulesFtsColumns.TITLE + ", " + ModulesFtsColumns.SUMMARY + ", "
+            + ModulesFtsColumns.DESCRIPTION + ", " + ModulesFtsColumns.AUTHOR
+            + ") VALUES (new." + ModulesColumns._ID + ", new." + ModulesColumns.TITLE
+            + ", new." + ModulesColumns.SUMMARY + ", new." + ModulesColumns.DESCRIPTION
+            + ", new." + ModulesColumns.AUTHOR + "); END";
+    static final String SQL_CREATE_TRIGGER_MODULES_FTS_DELETE = "CREATE TRIGGER "
+            + ModulesFtsColumns.TABLE_NAME + "_bd BEFORE DELETE ON "
+            + ModulesColumns.TABLE_NAME + " BEGIN DELETE FROM "
+            + ModulesFtsColumns.TABLE_NAME + " WHERE " + ModulesFtsColumns.DOCID
+            + " = old." + ModulesColumns._ID + "; END";
     static final String SQL_CREATE_TABLE_MODULE_VERSIONS = "CREATE TABLE "
             + ModuleVersionsColumns.TABLE_NAME + " ("
             + ModuleVersionsColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
@@ -54,37 +123,82 @@ public class RepoDbDefinitions {
             + " INTEGER NOT NULL REFERENCES " + ModulesColumns.TABLE_NAME
             + " ON DELETE CASCADE, " + MoreInfoColumns.LABEL
             + " TEXT NOT NULL, " + MoreInfoColumns.VALUE + " TEXT)";
-    static final String SQL_CREATE_TEMP_TABLE_INSTALLED_MODULES = "CREATE TEMP TABLE "
+    static final String SQL_CREATE_INDEX_MORE_INFO_MODULE_ID = "CREATE INDEX "
+            + MoreInfoColumns.IDX_MODULE_ID + " ON "
+            + MoreInfoColumns.TABLE_NAME + " ("
+            + MoreInfoColumns.MODULE_ID + ")";
+    static final String SQL_CREATE_TABLE_SCREENSHOTS = "CREATE TABLE "
+            + ScreenshotsColumns.TABLE_NAME + " (" + ScreenshotsColumns._ID
+            + " INTEGER PRIMARY KEY AUTOINCREMENT," + ScreenshotsColumns.MODULE_ID
+            + " INTEGER NOT NULL REFERENCES " + ModulesColumns.TABLE_NAME
+            + " ON DELETE CASCADE, " + ScreenshotsColumns.URL + " TEXT NOT NULL)";
+    static final String SQL_CREATE_INDEX_SCREENSHOTS_MODULE_ID = "CREATE INDEX "
+            + ScreenshotsColumns.IDX_MODULE_ID + " ON "
+            + ScreenshotsColumns.TABLE_NAME + " ("
+            + ScreenshotsColumns.MODULE_ID + ")";
+    // Not temporary, so that all connections of the pool can see it
+    static final String SQL_CREATE_TABLE_INSTALLED_MODULES = "CREATE TABLE "
             + InstalledModulesColumns.TABLE_NAME + " ("
             + InstalledModulesColumns.PKGNAME
             + " TEXT PRIMARY KEY ON CONFLICT REPLACE, "
             + InstalledModulesColumns.VERSION_CODE + " INTEGER NOT NULL, "
             + InstalledModulesColumns.VERSION_NAME + " TEXT)";
-    static final String SQL_CREATE_TEMP_VIEW_INSTALLED_MODULES_UPDATES = "CREATE TEMP VIEW "
-            + InstalledModulesUpdatesColumns.VIEW_NAME + " AS SELECT " + "m."
-            + ModulesColumns._ID + " AS "
-            + InstalledModulesUpdatesColumns.MODULE_ID + ", " + "i."
-            + InstalledModulesColumns.PKGNAME + " AS "
-            + InstalledModulesUpdatesColumns.PKGNAME + ", " + "i."
-            + InstalledModulesColumns.VERSION_CODE + " AS "
-            + InstalledModulesUpdatesColumns.INSTALLED_CODE + ", " + "i."
-            + InstalledModulesColumns.VERSION_NAME + " AS "
-            + InstalledModulesUpdatesColumns.INSTALLED_NAME + ", " + "v."
-            + ModuleVersionsColumns._ID + " AS "
-            + InstalledModulesUpdatesColumns.LATEST_ID + ", " + "v."
-            + ModuleVersionsColumns.CODE + " AS "
-            + InstalledModulesUpdatesColumns.LATEST_CODE + ", " + "v."
-            + ModuleVersionsColumns.NAME + " AS "
-            + InstalledModulesUpdatesColumns.LATEST_NAME + " FROM "
-            + InstalledModulesColumns.TABLE_NAME + " AS i" + " INNER JOIN "
-            + ModulesColumns.TABLE_NAME + " AS m" + " ON m."
-            + ModulesColumns.PKGNAME + " = i." + InstalledModulesColumns.PKGNAME
-            + " INNER JOIN " + ModuleVersionsColumns.TABLE_NAME + " AS v"
-            + " ON v." + ModuleVersionsColumns._ID + " = m."
-            + ModulesColumns.LATEST_VERSION + " WHERE "
-            + InstalledModulesUpdatesColumns.LATEST_CODE + " > "
-            + InstalledModulesUpdatesColumns.INSTALLED_CODE + " AND "
-            + ModulesColumns.PREFERRED + " = 1";
+    static final String SQL_CREATE_TABLE_INSTALLED_MODULES_UPDATES = "CREATE TABLE "
+            + InstalledModulesUpdatesColumns.TABLE_NAME + " ("
+            + InstalledModulesUpdatesColumns.PKGNAME + " TEXT PRIMARY KEY, "
+            + InstalledModulesUpdatesColumns.MODULE_ID + " INTEGER NOT NULL, "
+            + InstalledModulesUpdatesColumns.INSTALLED_CODE + " INTEGER NOT NULL, "
+            + InstalledModulesUpdatesColumns.INSTALLED_NAME + " TEXT, "
+            + InstalledModulesUpdatesColumns.LATEST_ID + " INTEGER NOT NULL, "
+            + InstalledModulesUpdatesColumns.LATEST_CODE + " INTEGER NOT NULL, "
+            + InstalledModulesUpdatesColumns.LATEST_NAME + " TEXT)";
+
+    // Kept across starts, unlike the installed modules
+    static final String SQL_CREATE_TABLE_SCANNED_PACKAGES = "CREATE TABLE "
+            + ScannedPackagesColumns.TABLE_NAME + " ("
+            + ScannedPackagesColumns.PKGNAME + " TEXT PRIMARY KEY, "
+            + ScannedPackagesColumns.UPDATE_TIME + " INTEGER NOT NULL, "
+            + ScannedPackagesColumns.IS_MODULE + " INTEGER NOT NULL, "
+            + ScannedPackagesColumns.MIN_VERSION + " INTEGER NOT NULL)";
+
+    /**
+     * Returns the statement that stores the available updates of installed modules,
+     * either of all of them or (with an argument) of a single package.
+     */
+    static String getSqlInsertInstalledModulesUpdates(ReleaseType globalReleaseType, boolean singlePackage) {
+        return "INSERT INTO " + InstalledModulesUpdatesColumns.TABLE_NAME + " ("
+                + InstalledModulesUpdatesColumns.PKGNAME + ", "
+                + InstalledModulesUpdatesColumns.MODULE_ID + ", "
+                + InstalledModulesUpdatesColumns.INSTALLED_CODE + ", "
+                + InstalledModulesUpdatesColumns.INSTALLED_NAME + ", "
+                + InstalledModulesUpdatesColumns.LATEST_ID + ", "
+                + InstalledModulesUpdatesColumns.LATEST_CODE + ", "
+                + InstalledModulesUpdatesColumns.LATEST_NAME + ")"
+                + " SELECT i." + InstalledModulesColumns.PKGNAME + ", m." + ModulesColumns._ID
+                + ", i." + InstalledModulesColumns.VERSION_CODE + ", i." + InstalledModulesColumns.VERSION_NAME
+                + ", v." + ModuleVersionsColumns._ID + ", v." + ModuleVersionsColumns.CODE
+                + ", v." + ModuleVersionsColumns.NAME + " FROM "
+                + InstalledModulesColumns.TABLE_NAME + " AS i" + " INNER JOIN "
+                + ModulesColumns.TABLE_NAME + " AS m" + " ON m."
+                + ModulesColumns.PKGNAME + " = i." + InstalledModulesColumns.PKGNAME
+                + " AND m." + ModulesColumns.PREFERRED + " = 1"
+                + " INNER JOIN " + ModuleVersionsColumns.TABLE_NAME + " AS v"
+                + " ON v." + ModuleVersionsColumns._ID + " = "
+                + getLatestVersionIdExpression("m", globalReleaseType) + " WHERE v."
+                + ModuleVersionsColumns.CODE + " > i." + InstalledModulesColumns.VERSION_CODE
+                + (singlePackage ? " AND i." + InstalledModulesColumns.PKGNAME + " = ?" : "");
+    }
+
+    /**
+     * Returns an expression for the ID of the latest version of a module, which depends on
+     * the module's own release type setting or otherwise on the global one.
+     */
+    static String getLatestVersionIdExpression(String alias, ReleaseType globalReleaseType) {
+        return "(CASE COALESCE(" + alias + "." + ModulesColumns.RELTYPE_OVERRIDE + ", " + globalReleaseType.ordinal() + ")"
+                + " WHEN " + ReleaseType.STABLE.ordinal() + " THEN " + alias + "." + ModulesColumns.LATEST_STABLE
+                + " WHEN " + ReleaseType.BETA.ordinal() + " THEN " + alias + "." + ModulesColumns.LATEST_BETA
+                + " ELSE " + alias + "." + ModulesColumns.LATEST_EXPERIMENTAL + " END)";
+    }
 
     //////////////////////////////////////////////////////////////////////////
     public interface RepositoriesColumns extends BaseColumns {
@@ -99,6 +213,13 @@ public class RepoDbDefinitions {
     //////////////////////////////////////////////////////////////////////////
     public interface ModulesColumns extends BaseColumns {
         String TABLE_NAME = "modules";
+        String IDX_PREFERENCE = "modules_preference_idx";
+        String IDX_PREFERRED = "modules_preferred_idx";
+        String IDX_LANGUAGE = "modules_language_idx";
+        String IDX_REPO_ID = "modules_repo_id_idx";
+        String IDX_TITLE = "modules_title_idx";
+        String IDX_UPDATED = "modules_updated_idx";
+        String IDX_CREATED = "modules_created_idx";
 
         String REPO_ID = "repo_id";
         String PKGNAME = "pkgname";
@@ -110,9 +231,31 @@ public class RepoDbDefinitions {
         String SUPPORT = "support";
         String CREATED = "created";
         String UPDATED = "updated";
+        String CONTENT_HASH = "content_hash";
+        // Highest version code of all versions, used to choose the preferred repository
+        String NEWEST_CODE = "newest_code";
+        // Ordinal of the ModuleLanguage guessed from the texts
+        String LANGUAGE = "language";
 
         String PREFERRED = "preferred";
-        String LATEST_VERSION = "latest_version_id";
+        // Latest version which may be shown for each release type
+        String LATEST_STABLE = "latest_stable_id";
+        String LATEST_BETA = "latest_beta_id";
+        String LATEST_EXPERIMENTAL = "latest_experimental_id";
+        // Release type chosen for this module instead of the global one
+        String RELTYPE_OVERRIDE = "reltype_override";
+    }
+
+    //////////////////////////////////////////////////////////////////////////
+    public interface ModulesFtsColumns {
+        String TABLE_NAME = ModulesColumns.TABLE_NAME + "_fts";
+
+        // Same as the _ID of the module
+        String DOCID = "docid";
+        String TITLE = ModulesColumns.TITLE;
+        String SUMMARY = ModulesColumns.SUMMARY;
+        String DESCRIPTION = ModulesColumns.DESCRIPTION;
+        String AUTHOR = ModulesColumns.AUTHOR;
     }
 
     //////////////////////////////////////////////////////////////////////////
@@ -134,12 +277,22 @@ public class RepoDbDefinitions {
     //////////////////////////////////////////////////////////////////////////
     public interface MoreInfoColumns extends BaseColumns {
         String TABLE_NAME = "more_info";
+        String IDX_MODULE_ID = "more_info_module_id_idx";
 
         String MODULE_ID = "module_id";
         String LABEL = "label";
         String VALUE = "value";
     }
 
+    //////////////////////////////////////////////////////////////////////////
+    public interface ScreenshotsColumns extends BaseColumns {
+        String TABLE_NAME = "screenshots";
+        String IDX_MODULE_ID = "screenshots_module_id_idx";
+
+        String MODULE_ID = "module_id";
+        String URL = "url";
+    }
+
     //////////////////////////////////////////////////////////////////////////
     public interface InstalledModulesColumns {
         String TABLE_NAME = "installed_modules";
@@ -151,7 +304,7 @@ public class RepoDbDefinitions {
 
     //////////////////////////////////////////////////////////////////////////
     public interface InstalledModulesUpdatesColumns {
-        String VIEW_NAME = InstalledModulesColumns.TABLE_NAME + "_updates";
+        String TABLE_NAME = InstalledModulesColumns.TABLE_NAME + "_updates";
 
         String MODULE_ID = "module_id";
         String PKGNAME = "pkgname";
@@ -162,6 +315,18 @@ public class RepoDbDefinitions {
         String LATEST_NAME = "latest_name";
     }
 
+    //////////////////////////////////////////////////////////////////////////
+    public interface ScannedPackagesColumns {
+        String TABLE_NAME = "scanned_packages";
+
+        String PKGNAME = "pkgname";
+        // The package is only examined again once this has changed
+        String UPDATE_TIME = "update_time";
+        String IS_MODULE = "is_module";
+        // As declared in the meta-data of the module
+        String MIN_VERSION = "min_version";
+    }
+
     //////////////////////////////////////////////////////////////////////////
     public interface OverviewColumns extends BaseColumns {
         String PKGNAME = ModulesColumns.PKGNAME;
@@ -176,9 +341,11 @@ public class RepoDbDefinitions {
         String IS_FRAMEWORK = "is_framework";
         String IS_INSTALLED = "is_installed";
         String HAS_UPDATE = "has_update";
+        String RELEVANCE = "relevance";
     }
 
     public static class OverviewColumnsIndexes {
+        public static int ID = -1;
         public static int PKGNAME = -1;
         public static int TITLE = -1;
         public static int SUMMARY = -1;
@@ -189,6 +356,7 @@ public class RepoDbDefinitions {
         public static int IS_FRAMEWORK = -1;
         public static int IS_INSTALLED = -1;
         public static int HAS_UPDATE = -1;
+        public static int RELEVANCE = -1;
         private static boolean isFilled = false;
 
         private OverviewColumnsIndexes() {
@@ -198,6 +366,7 @@ public class RepoDbDefinitions {
             if (isFilled || cursor == null)
                 return;
 
+            ID = cursor.getColumnIndexOrThrow(OverviewColumns._ID);
             PKGNAME = cursor.getColumnIndexOrThrow(OverviewColumns.PKGNAME);
             TITLE = cursor.getColumnIndexOrThrow(OverviewColumns.TITLE);
             SUMMARY = cursor.getColumnIndexOrThrow(OverviewColumns.SUMMARY);
@@ -209,6 +378,7 @@ public class RepoDbDefinitions {
             IS_FRAMEWORK = cursor.getColumnIndexOrThrow(OverviewColumns.IS_FRAMEWORK);
             IS_INSTALLED = cursor.getColumnIndexOrThrow(OverviewColumns.IS_INSTALLED);
             HAS_UPDATE = cursor.getColumnIndexOrThrow(OverviewColumns.HAS_UPDATE);
+            RELEVANCE = cursor.getColumnIndexOrThrow(OverviewColumns.RELEVANCE);
 
             isFilled = true;
         }
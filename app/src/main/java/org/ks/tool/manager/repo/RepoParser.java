@@ -1,22 +1,21 @@
 package org.ks.tool.manager.repo;
 
-import android.annotation.SuppressLint;
-import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Point;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LevelListDrawable;
-import android.os.AsyncTask;
 import android.text.Html;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.style.ImageSpan;
 import android.util.Log;
 import android.util.Pair;
+import android.view.View;
 import android.widget.TextView;
 
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Target;
 
 import org.ks.tool.manager.R;
 import org.xmlpull.v1.XmlPullParser;
@@ -25,11 +24,36 @@ import org.xmlpull.v1.XmlPullParserFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
 
 import static org.ks.tool.manager.MeowCatApplication.TAG;
 
 public class RepoParser {
     private final static String NS = null;
+    private final static Pattern HTML_IGNORED = Pattern.compile(
+            "<!--.*?-->|<(script|style)\\b.*?</\\1\\s*>", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern HTML_LIST_ITEM_START = Pattern.compile("<li\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private final static Pattern HTML_LIST_ITEM_END = Pattern.compile("</li\\s*>", Pattern.CASE_INSENSITIVE);
+    // Rendered descriptions and changelogs by module or version, which are reused from
+    // the module cache. Only accessed on the UI thread.
+    private final static Map<Object, Spanned> sHtmlCache = new WeakHashMap<>();
+    // Image loads are tagged with their TextView and cancelled when it leaves the window
+    private final static View.OnAttachStateChangeListener sImageLoadCanceller = new View.OnAttachStateChangeListener() {
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            CharSequence text = ((TextView) v).getText();
+            if (text instanceof Spanned)
+                loadImages((Spanned) text, (TextView) v);
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            Picasso.get().cancelTag(v);
+        }
+    };
     private final XmlPullParser parser;
     private RepoParserCallback mCallback;
     private boolean mRepoEventTriggered = false;
@@ -46,19 +70,32 @@ public class RepoParser {
         new RepoParser(is, callback).readRepo();
     }
 
-    public static Spanned parseSimpleHtml(final Context c, String source, final TextView textView) {
-        source = source.replaceAll("<li>", "\t\u0095 ");
-        source = source.replaceAll("</li>", "<br>");
-        Spanned html = Html.fromHtml(source, Html.FROM_HTML_MODE_COMPACT, source1 -> {
-            LevelListDrawable d = new LevelListDrawable();
-            Drawable empty = c.getResources().getDrawable(R.drawable.ic_no_image, null);
-            d.addLevel(0, 0, empty);
-            assert empty != null;
-            d.setBounds(0, 0, empty.getIntrinsicWidth(), empty.getIntrinsicHeight());
-            new ImageGetterAsyncTask(c, source1, d).execute(textView);
+    public static Spanned getDescriptionHtml(Context c, Module module, TextView textView) {
+        Spanned html = sHtmlCache.get(module);
+        if (html == null) {
+            html = parseSimpleHtml(c, module.description);
+            sHtmlCache.put(module, html);
+        }
+        loadImages(html, textView);
+        return html;
+    }
 
-            return d;
-        }, null);
+    public static Spanned getChangelogHtml(Context c, ModuleVersion version, TextView textView) {
+        Spanned html = sHtmlCache.get(version);
+        if (html == null) {
+            html = parseSimpleHtml(c, version.changelog);
+            sHtmlCache.put(version, html);
+        }
+        loadImages(html, textView);
+        return html;
+    }
+
+    /**
+     * Renders HTML that has been normalized by {@link #normalizeHtml(String)}.
+     */
+    private static Spanned parseSimpleHtml(final Context c, String source) {
+        Spanned html = Html.fromHtml(source, Html.FROM_HTML_MODE_COMPACT,
+                source1 -> new RemoteImageDrawable(c, source1), null);
 
         // trim trailing newlines
         int len = html.length();
@@ -75,6 +112,35 @@ public class RepoParser {
             return new SpannableStringBuilder(html, 0, end);
     }
 
+    /**
+     * Starts loading the images of {@code html} which haven't been loaded yet, e.g. because
+     * it has just been parsed or a previous load was cancelled. Must be called on the UI thread.
+     */
+    private static void loadImages(Spanned html, TextView textView) {
+        ImageSpan[] spans = html.getSpans(0, html.length(), ImageSpan.class);
+        if (spans.length == 0)
+            return;
+
+        textView.removeOnAttachStateChangeListener(sImageLoadCanceller);
+        textView.addOnAttachStateChangeListener(sImageLoadCanceller);
+        for (ImageSpan span : spans) {
+            Drawable d = span.getDrawable();
+            if (d instanceof RemoteImageDrawable)
+                ((RemoteImageDrawable) d).load(textView);
+        }
+    }
+
+    /**
+     * Removes content that isn't displayed and converts list items, which
+     * {@link Html#fromHtml} doesn't support, so that this only happens once when parsing.
+     */
+    static String normalizeHtml(String source) {
+        source = HTML_IGNORED.matcher(source).replaceAll("");
+        source = HTML_LIST_ITEM_START.matcher(source).replaceAll("\t\u0095 ");
+        source = HTML_LIST_ITEM_END.matcher(source).replaceAll("<br>");
+        return source.trim();
+    }
+
     private void readRepo() throws XmlPullParserException, IOException {
         parser.require(XmlPullParser.START_TAG, NS, "repository");
         Repository repository = new Repository();
@@ -150,9 +216,13 @@ public class RepoParser {
                     if (isHtml != null && isHtml.equals("true"))
                         module.descriptionIsHtml = true;
                     module.description = parser.nextText();
+                    if (module.descriptionIsHtml)
+                        module.description = normalizeHtml(module.description);
                     break;
                 case "screenshot":
-                    module.screenshots.add(parser.nextText());
+                    String screenshot = parser.nextText().trim();
+                    if (!screenshot.isEmpty())
+                        module.screenshots.add(screenshot);
                     break;
                 case "moreinfo":
                     String label = parser.getAttributeValue(NS, "label");
@@ -230,6 +300,8 @@ public class RepoParser {
                     if (isHtml != null && isHtml.equals("true"))
                         version.changelogIsHtml = true;
                     version.changelog = parser.nextText();
+                    if (version.changelogIsHtml)
+                        version.changelog = normalizeHtml(version.changelog);
                     break;
                 case "branch":
                     // obsolete
@@ -296,46 +368,70 @@ public class RepoParser {
         void onCompleted(Repository repository);
     }
 
-    static class ImageGetterAsyncTask extends AsyncTask<TextView, Void, Bitmap> {
+    /**
+     * Shows a placeholder until the image has been loaded by Picasso, which shares its memory
+     * and disk cache and its small thread pool with all other loads. Images are decoded at no
+     * more than the width of the text, so large screenshots don't need to fit into memory
+     * at their full size.
+     */
+    private static class RemoteImageDrawable extends LevelListDrawable implements Target {
+        private final Context mContext;
+        private final String mSource;
+        // Only accessed on the UI thread. The drawable is kept in the HTML cache, which
+        // must not keep the view alive after the load has been cancelled.
+        private WeakReference<TextView> mTextView;
+        private boolean mLoaded = false;
+
+        RemoteImageDrawable(Context context, String source) {
+            mContext = context.getApplicationContext();
+            mSource = source;
+            Drawable empty = context.getResources().getDrawable(R.drawable.ic_no_image, null);
+            addLevel(0, 0, empty);
+            setBounds(0, 0, empty.getIntrinsicWidth(), empty.getIntrinsicHeight());
+        }
 
-        private LevelListDrawable levelListDrawable;
-        @SuppressLint("StaticFieldLeak")
-        private Context context;
-        private String source;
-        @SuppressLint("StaticFieldLeak")
-        private TextView t;
+        void load(TextView textView) {
+            if (mLoaded || mSource == null || mSource.isEmpty())
+                return;
+
+            int width = textView.getWidth();
+            if (width <= 0)
+                width = mContext.getResources().getDisplayMetrics().widthPixels;
+            width -= textView.getTotalPaddingLeft() + textView.getTotalPaddingRight();
+
+            // Picasso only keeps a weak reference to the target, the span keeps this one alive
+            mTextView = new WeakReference<>(textView);
+            Picasso.get()
+                    .load(mSource)
+                    .resize(Math.max(width, 1), 0)
+                    .onlyScaleDown()
+                    .tag(textView)
+                    .into(this);
+        }
 
-        ImageGetterAsyncTask(Context context, String source, LevelListDrawable levelListDrawable) {
-            this.context = context;
-            this.source = source;
-            this.levelListDrawable = levelListDrawable;
+        @Override
+        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+            mLoaded = true;
+            addLevel(1, 1, new BitmapDrawable(mContext.getResources(), bitmap));
+            setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            setLevel(1);
+
+            TextView textView = mTextView != null ? mTextView.get() : null;
+            mTextView = null;
+            if (textView != null)
+                textView.setText(textView.getText());
         }
 
         @Override
-        protected Bitmap doInBackground(TextView... params) {
-            t = params[0];
-            try {
-                return Picasso.get().load(source).get();
-            } catch (Exception e) {
-                return null;
-            }
+        public void onBitmapFailed(Exception e, Drawable errorDrawable) {
+            // Keep the placeholder instead of retrying every time the text is shown
+            mLoaded = true;
+            mTextView = null;
         }
 
         @Override
-        protected void onPostExecute(final Bitmap bitmap) {
-            try {
-                Drawable d = new BitmapDrawable(context.getResources(), bitmap);
-                Point size = new Point();
-                ((Activity) context).getWindowManager().getDefaultDisplay().getSize(size);
-                int multiplier = size.x / bitmap.getWidth();
-                if (multiplier <= 0) multiplier = 1;
-                levelListDrawable.addLevel(1, 1, d);
-                levelListDrawable.setBounds(0, 0, bitmap.getWidth() * multiplier, bitmap.getHeight() * multiplier);
-                levelListDrawable.setLevel(1);
-                t.setText(t.getText());
-            } catch (Exception ignored) { /* Like a null bitmap, etc. */
-            }
+        public void onPrepareLoad(Drawable placeHolderDrawable) {
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,234 @@
+package org.ks.tool.manager.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.UiThread;
+
+import org.ks.tool.manager.XposedApp;
+import org.ks.tool.manager.util.ModuleUtil.InstalledModule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Supplier;
+
+import static org.ks.tool.manager.MeowCatApplication.TAG;
+
+/**
+ * Icons of apps and modules for all lists, rendered once at the size in which they are
+ * shown and then kept in memory and on disk. The files are named after the package and
+ * its update time, so an updated app gets a new icon and the previous file is removed.
+ * The files of uninstalled apps are removed as well, and the least recently used ones
+ * once the disk cache exceeds {@value #MAX_DISK_SIZE} bytes.
+ */
+public final class AppIconCache {
+    private static final String DIR_NAME = "app_icons";
+    private static final long MAX_DISK_SIZE = 4 * 1024 * 1024;
+    private static final int ICON_SIZE_DP = 48;
+    // Package names can't contain this, so the prefix of a package is unique
+    private static final char SEPARATOR = '@';
+
+    private static final LruCache<String, Bitmap> sMemoryCache = new LruCache<String, Bitmap>(
+            (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE)) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    private AppIconCache() {
+    }
+
+    /**
+     * Shows the icon of an app, or a placeholder until it has been loaded.
+     */
+    @UiThread
+    public static void load(ImageView view, ApplicationInfo app, long updateTime) {
+        final PackageManager pm = XposedApp.getInstance().getPackageManager();
+        load(view, getKey(app.packageName, updateTime, false), () -> app.loadIcon(pm));
+    }
+
+    /**
+     * Shows the icon of a module, which may be the one of its settings activity.
+     */
+    @UiThread
+    public static void load(ImageView view, InstalledModule module) {
+        load(view, getKey(module.packageName, module.updateTime, true), module::loadIcon);
+    }
+
+    /**
+     * Loads the icon of a module if it isn't cached yet. Must not be called on the UI thread.
+     */
+    static void prefetch(InstalledModule module) {
+        getBitmap(getKey(module.packageName, module.updateTime, true), module::loadIcon);
+    }
+
+    /**
+     * Removes the icons of an app that has been uninstalled.
+     */
+    public static void remove(String packageName) {
+        final String packagePrefix = packageName + SEPARATOR;
+        for (String key : sMemoryCache.snapshot().keySet()) {
+            if (key.startsWith(packagePrefix))
+                sMemoryCache.remove(key);
+        }
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            File dir = new File(XposedApp.getInstance().getCacheDir(), DIR_NAME);
+            File[] files = dir.listFiles((d, name) -> name.startsWith(packagePrefix));
+            if (files != null) {
+                for (File file : files) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Releases the icons in memory, all of them if no list is visible anymore.
+     */
+    public static void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+            sMemoryCache.evictAll();
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            sMemoryCache.trimToSize(sMemoryCache.maxSize() / 2);
+    }
+
+    private static String getKey(String packageName, long updateTime, boolean module) {
+        return packageName + SEPARATOR + updateTime + (module ? SEPARATOR + "module" : "");
+    }
+
+    private static void load(final ImageView view, final String key, final Supplier<Drawable> loader) {
+        view.setTag(key);
+        Bitmap bitmap = sMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageResource(android.R.drawable.sym_def_app_icon);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            final Bitmap icon = getBitmap(key, loader);
+            if (icon == null)
+                return;
+
+            XposedApp.runOnUiThread(() -> {
+                if (key.equals(view.getTag()))
+                    view.setImageBitmap(icon);
+            });
+        });
+    }
+
+    private static Bitmap getBitmap(String key, Supplier<Drawable> loader) {
+        Bitmap bitmap = sMemoryCache.get(key);
+        if (bitmap != null)
+            return bitmap;
+
+        File dir = new File(XposedApp.getInstance().getCacheDir(), DIR_NAME);
+        File file = new File(dir, key + ".png");
+        if (file.isFile()) {
+            bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap != null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+            }
+        }
+
+        if (bitmap == null) {
+            Drawable icon;
+            try {
+                icon = loader.get();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "AppIconCache -> Could not load the icon for " + key, e);
+                return null;
+            }
+            bitmap = render(icon);
+            write(dir, file, key, bitmap);
+        }
+
+        sMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    private static Bitmap render(Drawable icon) {
+        int size = Math.round(ICON_SIZE_DP * XposedApp.getInstance().getResources().getDisplayMetrics().density);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        icon.setBounds(0, 0, size, size);
+        icon.draw(canvas);
+        return bitmap;
+    }
+
+    private static void write(File dir, File file, String key, Bitmap bitmap) {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            return;
+
+        // Another thread may be rendering the same icon, so each one writes its own file
+        File tmpFile;
+        try {
+            tmpFile = File.createTempFile(key, ".tmp", dir);
+        } catch (IOException e) {
+            Log.w(TAG, "AppIconCache -> Could not write " + file, e);
+            return;
+        }
+        try (OutputStream os = new FileOutputStream(tmpFile)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
+        } catch (IOException e) {
+            Log.w(TAG, "AppIconCache -> Could not write " + file, e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+
+        // Icons of previous versions of the package won't be used anymore
+        String packagePrefix = key.substring(0, key.indexOf(SEPARATOR) + 1);
+        boolean module = key.endsWith(SEPARATOR + "module");
+        File[] files = dir.listFiles((d, name) -> name.startsWith(packagePrefix)
+                && name.endsWith(".png") && !name.equals(file.getName())
+                && name.endsWith(SEPARATOR + "module.png") == module);
+        if (files != null) {
+            for (File stale : files) {
+                //noinspection ResultOfMethodCallIgnored
+                stale.delete();
+            }
+        }
+        trimDiskCache(dir);
+    }
+
+    private static synchronized void trimDiskCache(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".png"));
+        if (files == null)
+            return;
+
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        if (size <= MAX_DISK_SIZE)
+            return;
+
+        for (File file : FileUtil.sortByLastModified(files)) {
+            long length = file.length();
+            if (file.delete())
+                size -= length;
+            if (size <= MAX_DISK_SIZE)
+                break;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.ks.tool.manager.util;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import org.ks.tool.manager.XposedApp;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Labels of the installed apps in the current locale, which are looked up once per
+ * package instead of for every filter or sort. Entries are dropped when a package
+ * changes (see {@link org.ks.tool.manager.receiver.PackageChangeReceiver}) and all of
+ * them when the locale changes.
+ */
+public final class AppLabelIndex {
+    private static final Map<String, Entry> sEntries = new ConcurrentHashMap<>();
+    private static volatile Locale sLocale = Locale.getDefault();
+
+    private AppLabelIndex() {
+    }
+
+    /**
+     * Returns the label to display for the app.
+     */
+    public static String getLabel(ApplicationInfo info) {
+        return getEntry(info).label;
+    }
+
+    /**
+     * Returns the label in lower case, for matching against a lower case filter.
+     */
+    public static String getLowercaseLabel(ApplicationInfo info) {
+        return getEntry(info).lowercaseLabel;
+    }
+
+    /**
+     * Looks up the labels that aren't known yet. Should be called on a background
+     * thread before the labels are needed.
+     */
+    public static void prefetch(Collection<ApplicationInfo> apps) {
+        for (ApplicationInfo info : apps)
+            getEntry(info);
+    }
+
+    public static void invalidate(String packageName) {
+        sEntries.remove(packageName);
+    }
+
+    public static void invalidateAll() {
+        sEntries.clear();
+    }
+
+    private static Entry getEntry(ApplicationInfo info) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(sLocale)) {
+            sLocale = locale;
+            sEntries.clear();
+        }
+
+        Entry entry = sEntries.get(info.packageName);
+        if (entry == null) {
+            PackageManager pm = XposedApp.getInstance().getPackageManager();
+            entry = new Entry(InstallApkUtil.getAppLabel(info, pm), locale);
+            sEntries.put(info.packageName, entry);
+        }
+        return entry;
+    }
+
+    private static final class Entry {
+        final String label;
+        final String lowercaseLabel;
+
+        Entry(String label, Locale locale) {
+            this.label = label;
+            this.lowercaseLabel = label.toLowerCase(locale);
+        }
+    }
+}
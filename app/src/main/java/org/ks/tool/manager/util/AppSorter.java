@@ -0,0 +1,117 @@
+package org.ks.tool.manager.util;
+
+import android.content.pm.ApplicationInfo;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorts app and module lists in the order chosen with the "list_sort" preference.
+ * The values to sort by are read once per item before sorting instead of in every
+ * comparison, which matters for labels and package times that require a lookup.
+ */
+public final class AppSorter {
+    public static final int SORT_BY_NAME = 0;
+    public static final int SORT_BY_NAME_REVERSE = 1;
+    public static final int SORT_BY_PACKAGE_NAME = 2;
+    public static final int SORT_BY_PACKAGE_NAME_REVERSE = 3;
+    public static final int SORT_BY_INSTALL_TIME = 4;
+    public static final int SORT_BY_INSTALL_TIME_REVERSE = 5;
+    public static final int SORT_BY_UPDATE_TIME = 6;
+    public static final int SORT_BY_UPDATE_TIME_REVERSE = 7;
+
+    private AppSorter() {
+    }
+
+    /**
+     * Sorts {@code items} in place. Only the values needed for {@code sortOrder} are
+     * requested from {@code provider}, each of them once per item.
+     *
+     * @param checkedOnTop whether checked items come first, regardless of the order
+     */
+    public static <T> void sort(List<T> items, int sortOrder, boolean checkedOnTop, KeyProvider<T> provider) {
+        Collator collator = Collator.getInstance();
+        List<Key<T>> keys = new ArrayList<>(items.size());
+        for (T item : items) {
+            ApplicationInfo app = provider.getApp(item);
+            Key<T> key = new Key<>(item, app.packageName);
+            switch (sortOrder) {
+                case SORT_BY_PACKAGE_NAME:
+                case SORT_BY_PACKAGE_NAME_REVERSE:
+                    break;
+                case SORT_BY_INSTALL_TIME:
+                case SORT_BY_INSTALL_TIME_REVERSE:
+                    key.time = provider.getInstallTime(item);
+                    break;
+                case SORT_BY_UPDATE_TIME:
+                case SORT_BY_UPDATE_TIME_REVERSE:
+                    key.time = provider.getUpdateTime(item);
+                    break;
+                default:
+                    key.label = collator.getCollationKey(AppLabelIndex.getLabel(app));
+                    break;
+            }
+            key.checked = checkedOnTop && provider.isChecked(item);
+            keys.add(key);
+        }
+
+        Comparator<Key<T>> cmp;
+        switch (sortOrder) {
+            case SORT_BY_PACKAGE_NAME:
+            case SORT_BY_PACKAGE_NAME_REVERSE:
+                cmp = (a, b) -> a.packageName.compareTo(b.packageName);
+                break;
+            case SORT_BY_INSTALL_TIME:
+            case SORT_BY_INSTALL_TIME_REVERSE:
+            case SORT_BY_UPDATE_TIME:
+            case SORT_BY_UPDATE_TIME_REVERSE:
+                cmp = (a, b) -> Long.compare(a.time, b.time);
+                break;
+            default:
+                cmp = (a, b) -> a.label.compareTo(b.label);
+                break;
+        }
+        // Odd values are the reverse orders
+        if (sortOrder % 2 == 1)
+            cmp = cmp.reversed();
+
+        final Comparator<Key<T>> order = cmp;
+        keys.sort((a, b) -> {
+            if (a.checked != b.checked)
+                return a.checked ? -1 : 1;
+            return order.compare(a, b);
+        });
+
+        for (int i = 0; i < keys.size(); i++)
+            items.set(i, keys.get(i).item);
+    }
+
+    /**
+     * Provides the values that items can be sorted by.
+     */
+    public interface KeyProvider<T> {
+        ApplicationInfo getApp(T item);
+
+        long getInstallTime(T item);
+
+        long getUpdateTime(T item);
+
+        boolean isChecked(T item);
+    }
+
+    private static final class Key<T> {
+        final T item;
+        final String packageName;
+        CollationKey label;
+        long time;
+        boolean checked;
+
+        Key(T item, String packageName) {
+            this.item = item;
+            this.packageName = packageName;
+        }
+    }
+}
@@ -29,8 +29,10 @@ import org.ks.tool.manager.repo.ReleaseType;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -415,6 +417,15 @@ public class DownloadsUtil {
     }
 
     static SyncDownloadInfo downloadSynchronously(String url, File target) {
+        return downloadSynchronously(url, target, null);
+    }
+
+    /**
+     * Downloads {@code url} into {@code target}. If a consumer is given, it reads the
+     * response while it is being written to the target file, instead of waiting for
+     * the download to complete.
+     */
+    static SyncDownloadInfo downloadSynchronously(String url, File target, StreamConsumer consumer) {
         final boolean useNotModifiedTags = target.exists();
 
         URLConnection connection = null;
@@ -462,23 +473,34 @@ public class DownloadsUtil {
 
             in = connection.getInputStream();
             out = new FileOutputStream(target);
-            byte[] buf = new byte[1024];
-            int read;
-            while ((read = in.read(buf)) != -1) {
-                out.write(buf, 0, read);
+            if (consumer != null) {
+                TeeInputStream tee = new TeeInputStream(in, out);
+                try {
+                    consumer.consume(tee);
+                } catch (Throwable t) {
+                    // The consumer may only have passed on an error of the connection or the
+                    // cached copy, which is a failed download rather than a broken file
+                    if (tee.getStreamError() != null)
+                        throw tee.getStreamError();
+                    return new SyncDownloadInfo(SyncDownloadInfo.STATUS_FAILED, null, t);
+                }
+                // The consumer may stop before EOF, but the cached copy must be complete
+                tee.drain();
+            } else {
+                byte[] buf = new byte[1024];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
             }
 
+            SyncDownloadInfo info = new SyncDownloadInfo(SyncDownloadInfo.STATUS_SUCCESS, null);
             if (connection instanceof HttpURLConnection) {
                 HttpURLConnection httpConnection = (HttpURLConnection) connection;
-                String modified = httpConnection.getHeaderField("Last-Modified");
-                String etag = httpConnection.getHeaderField("ETag");
-
-                mPref.edit()
-                        .putString("download_" + url + "_modified", modified)
-                        .putString("download_" + url + "_etag", etag).apply();
+                info.modified = httpConnection.getHeaderField("Last-Modified");
+                info.etag = httpConnection.getHeaderField("ETag");
             }
-
-            return new SyncDownloadInfo(SyncDownloadInfo.STATUS_SUCCESS, null);
+            return info;
 
         } catch (Throwable t) {
             return new SyncDownloadInfo(SyncDownloadInfo.STATUS_FAILED,
@@ -501,6 +523,18 @@ public class DownloadsUtil {
         }
     }
 
+    /**
+     * Saves the cache validators of a successful download, so that the next download
+     * of {@code url} is revalidated with the server. Callers must only do this once they
+     * have processed the downloaded file, otherwise a "not modified" response would
+     * skip changes that have never been applied.
+     */
+    static void saveCacheValidators(String url, SyncDownloadInfo info) {
+        mPref.edit()
+                .putString("download_" + url + "_modified", info.modified)
+                .putString("download_" + url + "_etag", info.etag).apply();
+    }
+
     static void clearCache(String url) {
         if (url != null) {
             mPref.edit().remove("download_" + url + "_modified")
@@ -540,6 +574,80 @@ public class DownloadsUtil {
         void onDownloadFinished(Context context, DownloadInfo info);
     }
 
+    interface StreamConsumer {
+        void consume(InputStream in) throws Exception;
+    }
+
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream mOut;
+        // Kept because the consumer might wrap or swallow it
+        private IOException mStreamError = null;
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            mOut = out;
+        }
+
+        /**
+         * Returns the first error of reading the response or writing the copy, if any.
+         */
+        IOException getStreamError() {
+            return mStreamError;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b != -1)
+                    mOut.write(b);
+                return b;
+            } catch (IOException e) {
+                if (mStreamError == null)
+                    mStreamError = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            try {
+                int read = super.read(b, off, len);
+                if (read > 0)
+                    mOut.write(b, off, read);
+                return read;
+            } catch (IOException e) {
+                if (mStreamError == null)
+                    mStreamError = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still end up in the copy
+            byte[] buf = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            int read;
+            while (skipped < n && (read = read(buf, 0, (int) Math.min(buf.length, n - skipped))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            byte[] buf = new byte[8192];
+            //noinspection StatementWithEmptyBody
+            while (read(buf, 0, buf.length) != -1) {
+            }
+        }
+    }
+
     public static class Builder {
         private final Context mContext;
         boolean mModule = false;
@@ -656,10 +764,24 @@ public class DownloadsUtil {
 
         public final int status;
         final String errorMessage;
+        /**
+         * Exception thrown by the {@link StreamConsumer}, if any
+         */
+        final Throwable consumerError;
+        /**
+         * Cache validators of a successful download, see {@link #saveCacheValidators}
+         */
+        String modified;
+        String etag;
 
         private SyncDownloadInfo(int status, String errorMessage) {
+            this(status, errorMessage, null);
+        }
+
+        private SyncDownloadInfo(int status, String errorMessage, Throwable consumerError) {
             this.status = status;
             this.errorMessage = errorMessage;
+            this.consumerError = consumerError;
         }
     }
 }
\ No newline at end of file
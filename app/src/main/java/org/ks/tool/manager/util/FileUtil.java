@@ -0,0 +1,29 @@
+package org.ks.tool.manager.util;
+
+import java.io.File;
+import java.util.Arrays;
+
+final class FileUtil {
+    private FileUtil() {
+    }
+
+    /**
+     * Returns the files ordered from the least to the most recently modified. Each
+     * timestamp is read only once, instead of with every comparison, which would also
+     * break the order if a file was touched while sorting.
+     */
+    static File[] sortByLastModified(File[] files) {
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+
+        File[] sorted = new File[files.length];
+        for (int i = 0; i < files.length; i++)
+            sorted[i] = files[order[i]];
+        return sorted;
+    }
+}
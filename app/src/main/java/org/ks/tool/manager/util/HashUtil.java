@@ -18,7 +18,7 @@ public class HashUtil {
         }
     }
 
-    static String md5(String input) {
+    public static String md5(String input) {
         return hash(input);
     }
 
@@ -10,7 +10,9 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.FileUtils;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
@@ -26,14 +28,22 @@ import org.ks.tool.manager.StatusInstallerFragment;
 import org.ks.tool.manager.XposedApp;
 import org.ks.tool.manager.repo.ModuleVersion;
 import org.ks.tool.manager.repo.RepoDb;
+import org.ks.tool.manager.repo.RepoDb.ScannedPackage;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.ks.tool.manager.MeowCatApplication.TAG;
 import static org.ks.tool.manager.XposedApp.rw_rw_r__;
@@ -43,11 +53,15 @@ public final class ModuleUtil {
     private static final String MODULES_LIST_FILE = XposedApp.BASE_DIR + "conf/modules.list";
     private static final String PLAY_STORE_PACKAGE = "com.android.vending";
     public static int MIN_MODULE_VERSION = 2; // reject modules with
+    private static final int PREFETCH_THREADS = 2;
     private static ModuleUtil mInstance = null;
     private final XposedApp mApp;
     private final PackageManager mPm;
     private final String mFrameworkPackageName;
     private final List<ModuleListener> mListeners = new CopyOnWriteArrayList<>();
+    // Loads what the modules list shows, the threads stop when there's nothing to do
+    private final ThreadPoolExecutor mPrefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
     private SharedPreferences mPref;
     private Map<String, InstalledModule> mInstalledModules;
     private boolean mIsReloading = false;
@@ -57,6 +71,7 @@ public final class ModuleUtil {
         mPref = mApp.getSharedPreferences("enabled_modules", Context.MODE_PRIVATE);
         mPm = mApp.getPackageManager();
         mFrameworkPackageName = mApp.getPackageName();
+        mPrefetchExecutor.allowCoreThreadTimeOut(true);
     }
 
     public static synchronized ModuleUtil getInstance() {
@@ -79,6 +94,26 @@ public final class ModuleUtil {
         return result;
     }
 
+    private static boolean isModule(ApplicationInfo app) {
+        return app.metaData != null && app.metaData.containsKey("ksmodule");
+    }
+
+    private static int readMinVersion(ApplicationInfo app) {
+        Object minVersionRaw = app.metaData.get("ksminversion");
+        if (minVersionRaw instanceof Integer) {
+            return (int) minVersionRaw;
+        } else if (minVersionRaw instanceof String) {
+            return extractIntPart((String) minVersionRaw);
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Reloads the list of installed modules. The meta-data is only requested for packages
+     * which have been installed or updated since the last scan, for all others the
+     * results of that scan are used.
+     */
     public void reloadInstalledModules() {
         synchronized (this) {
             if (mIsReloading)
@@ -86,24 +121,56 @@ public final class ModuleUtil {
             mIsReloading = true;
         }
 
+        final long start = SystemClock.elapsedRealtime();
+        Map<String, InstalledModule> oldModules = (mInstalledModules != null) ? mInstalledModules : Collections.emptyMap();
         Map<String, InstalledModule> modules = new HashMap<>();
-        RepoDb.beginTransation();
-        try {
-            RepoDb.deleteAllInstalledModules();
-
-            for (PackageInfo pkg : mPm.getInstalledPackages(PackageManager.GET_META_DATA)) {
-                ApplicationInfo app = pkg.applicationInfo;
-                if (!app.enabled)
+        Map<String, ScannedPackage> scannedPackages = RepoDb.getScannedPackages();
+        Map<String, ScannedPackage> changedPackages = new HashMap<>();
+        Set<String> removedPackages = new HashSet<>(scannedPackages.keySet());
+
+        List<PackageInfo> packages = mPm.getInstalledPackages(0);
+        for (PackageInfo pkg : packages) {
+            removedPackages.remove(pkg.packageName);
+            ScannedPackage scanned = scannedPackages.get(pkg.packageName);
+            if (scanned == null || scanned.updateTime != pkg.lastUpdateTime) {
+                try {
+                    pkg = mPm.getPackageInfo(pkg.packageName, PackageManager.GET_META_DATA);
+                } catch (NameNotFoundException e) {
+                    // Has been uninstalled in the meantime
+                    removedPackages.add(pkg.packageName);
                     continue;
-
-                InstalledModule installed = null;
-                if (app.metaData != null && app.metaData.containsKey("ksmodule")) {
-                    installed = new InstalledModule(pkg, false);
-                    modules.put(pkg.packageName, installed);
                 }
+                boolean isModule = isModule(pkg.applicationInfo);
+                scanned = new ScannedPackage(pkg.lastUpdateTime, isModule, isModule ? readMinVersion(pkg.applicationInfo) : 0);
+                changedPackages.put(pkg.packageName, scanned);
+            }
+
+            if (!scanned.isModule || !pkg.applicationInfo.enabled)
+                continue;
+
+            InstalledModule old = oldModules.get(pkg.packageName);
+            if (old != null && old.updateTime == pkg.lastUpdateTime)
+                modules.put(pkg.packageName, old);
+            else
+                modules.put(pkg.packageName, new InstalledModule(pkg, false, scanned.minVersion));
+        }
 
-                if (installed != null)
-                    RepoDb.insertInstalledModule(installed);
+        // Only the modules that have changed are written
+        int writtenModules = 0;
+        RepoDb.beginTransation();
+        try {
+            RepoDb.updateScannedPackages(changedPackages, removedPackages);
+            for (String packageName : oldModules.keySet()) {
+                if (!modules.containsKey(packageName)) {
+                    RepoDb.deleteInstalledModule(packageName);
+                    writtenModules++;
+                }
+            }
+            for (InstalledModule module : modules.values()) {
+                if (oldModules.get(module.packageName) != module) {
+                    RepoDb.insertInstalledModule(module);
+                    writtenModules++;
+                }
             }
 
             RepoDb.setTransactionSuccessful();
@@ -111,7 +178,12 @@ public final class ModuleUtil {
             RepoDb.endTransation();
         }
 
+        Log.i(TAG, String.format("ModuleUtil -> Scanned %d packages in %d ms (%d examined again, %d removed, %d of %d modules written)",
+                packages.size(), SystemClock.elapsedRealtime() - start, changedPackages.size(),
+                removedPackages.size(), writtenModules, modules.size()));
+
         mInstalledModules = modules;
+        prefetch(modules.values());
         synchronized (this) {
             mIsReloading = false;
         }
@@ -125,6 +197,7 @@ public final class ModuleUtil {
         try {
             pkg = mPm.getPackageInfo(packageName, PackageManager.GET_META_DATA);
         } catch (NameNotFoundException e) {
+            RepoDb.updateScannedPackages(Collections.emptyMap(), Collections.singleton(packageName));
             RepoDb.deleteInstalledModule(packageName);
             InstalledModule old = mInstalledModules.remove(packageName);
             if (old != null) {
@@ -136,10 +209,15 @@ public final class ModuleUtil {
         }
 
         ApplicationInfo app = pkg.applicationInfo;
-        if (app.enabled && app.metaData != null && app.metaData.containsKey("ksmodule")) {
-            InstalledModule module = new InstalledModule(pkg, false);
+        boolean isModule = isModule(app);
+        int minVersion = isModule ? readMinVersion(app) : 0;
+        RepoDb.updateScannedPackages(Collections.singletonMap(packageName,
+                new ScannedPackage(pkg.lastUpdateTime, isModule, minVersion)), Collections.emptySet());
+        if (app.enabled && isModule) {
+            InstalledModule module = new InstalledModule(pkg, false, minVersion);
             RepoDb.insertInstalledModule(module);
             mInstalledModules.put(packageName, module);
+            prefetch(Collections.singleton(module));
             for (ModuleListener listener : mListeners) {
                 listener.onSingleInstalledModuleReloaded(mInstance, packageName,
                         module);
@@ -157,6 +235,18 @@ public final class ModuleUtil {
         }
     }
 
+    /**
+     * Loads the names, descriptions and icons of the modules in the background,
+     * so that the modules list doesn't have to load them while scrolling. The icons are
+     * kept by {@link AppIconCache}.
+     */
+    private void prefetch(Collection<InstalledModule> modules) {
+        for (InstalledModule module : modules) {
+            if (!module.isPrefetched())
+                mPrefetchExecutor.execute(module::prefetch);
+        }
+    }
+
     public synchronized boolean isLoading() {
         return mIsReloading;
     }
@@ -276,13 +366,17 @@ public final class ModuleUtil {
         public final long updateTime;
         final boolean isFramework;
         public ApplicationInfo app;
-        private String appName; // loaded lazyily
-        private String description; // loaded lazyily
-
-        private Drawable.ConstantState iconCache = null;
+        // Loaded lazily, possibly by the prefetch threads
+        private volatile String appName;
+        private volatile String description;
+        private volatile boolean iconPrefetched = false;
 
+        /**
+         * The meta-data of {@code pkg} may be missing if it has been read before,
+         * in that case {@code declaredMinVersion} is what the module declared.
+         */
         @SuppressWarnings("deprecation")
-        private InstalledModule(PackageInfo pkg, boolean isFramework) {
+        private InstalledModule(PackageInfo pkg, boolean isFramework, int declaredMinVersion) {
             this.app = pkg.applicationInfo;
             this.packageName = pkg.packageName;
             this.isFramework = isFramework;
@@ -303,14 +397,7 @@ public final class ModuleUtil {
                 if (version > 0 && XposedApp.getPreferences().getBoolean("skip_ksminversion_check", false)) {
                     this.minVersion = version;
                 } else {
-                    Object minVersionRaw = app.metaData.get("ksminversion");
-                    if (minVersionRaw instanceof Integer) {
-                        this.minVersion = (int) minVersionRaw;
-                    } else if (minVersionRaw instanceof String) {
-                        this.minVersion = extractIntPart((String) minVersionRaw);
-                    } else {
-                        this.minVersion = 0;
-                    }
+                    this.minVersion = declaredMinVersion;
                 }
             }
         }
@@ -331,7 +418,15 @@ public final class ModuleUtil {
 
         public String getDescription() {
             if (this.description == null) {
-                Object descriptionRaw = app.metaData.get("ksdescription");
+                Bundle metaData = app.metaData;
+                if (metaData == null) {
+                    // Not loaded if the module hasn't changed since the last scan
+                    try {
+                        metaData = mPm.getApplicationInfo(packageName, PackageManager.GET_META_DATA).metaData;
+                    } catch (NameNotFoundException ignored) {
+                    }
+                }
+                Object descriptionRaw = (metaData != null) ? metaData.get("ksdescription") : null;
                 String descriptionTmp = null;
                 if (descriptionRaw instanceof String) {
                     descriptionTmp = ((String) descriptionRaw).trim();
@@ -348,14 +443,32 @@ public final class ModuleUtil {
             return this.description;
         }
 
+        boolean isPrefetched() {
+            return appName != null && description != null && iconPrefetched;
+        }
+
+        void prefetch() {
+            try {
+                getAppName();
+                AppLabelIndex.getLabel(app);
+                getDescription();
+                AppIconCache.prefetch(this);
+                iconPrefetched = true;
+            } catch (RuntimeException e) {
+                // E.g. if the package has been removed in the meantime
+                Log.w(TAG, "ModuleUtil -> Could not prefetch " + packageName, e);
+            }
+        }
+
         public boolean isUpdate(ModuleVersion version) {
             return (version != null) && version.code > versionCode;
         }
 
-        public Drawable getIcon() {
-            if (iconCache != null)
-                return iconCache.newDrawable();
-
+        /**
+         * Loads the icon of the module's settings activity or of the app. Lists show it
+         * through {@link AppIconCache} instead.
+         */
+        Drawable loadIcon() {
             Intent mIntent = new Intent(Intent.ACTION_MAIN);
             mIntent.addCategory(ModulesFragment.SETTINGS_CATEGORY);
             mIntent.setPackage(app.packageName);
@@ -366,8 +479,6 @@ public final class ModuleUtil {
                 result = app.loadIcon(mPm);
             else
                 result = ris.get(0).activityInfo.loadIcon(mPm);
-            iconCache = result.getConstantState();
-
             return result;
         }
 
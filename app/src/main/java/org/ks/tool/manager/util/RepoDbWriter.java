@@ -0,0 +1,104 @@
+package org.ks.tool.manager.util;
+
+import android.os.SystemClock;
+
+import org.ks.tool.manager.repo.RepoDb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the entries of all repositories that are being fetched on a single thread, in
+ * the order in which they have been parsed. A repository that downloads slowly therefore
+ * doesn't hold up the others, which would otherwise wait until it has been written.
+ * <p>
+ * Consecutive entries of the same repository are committed together, but only as long
+ * as more of them are ready, so that a transaction never waits for the network while
+ * other writers, such as changes made in the UI, wait for the database.
+ */
+class RepoDbWriter extends Thread {
+    // Large enough that all repositories can keep downloading while a batch is written
+    private static final int QUEUE_CAPACITY = 1024;
+    // Bounds how long a transaction blocks other writers
+    static final int MAX_BATCH_SIZE = 256;
+    private static final long MAX_BATCH_MILLIS = 100;
+    private static final Entry END = new Entry(null, null);
+
+    private final BlockingQueue<Entry> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    RepoDbWriter() {
+        super("RepoDbWriter");
+    }
+
+    /**
+     * Queues an entry of a repository, waiting while the queue is full.
+     */
+    void put(RepoIngestJob job, Runnable op) throws InterruptedException {
+        mQueue.put(new Entry(job, op));
+    }
+
+    /**
+     * Writes the remaining entries and waits until the writer has finished. Must only be
+     * called once all repositories have been fetched.
+     */
+    void finish() throws InterruptedException {
+        mQueue.put(END);
+        join();
+    }
+
+    @Override
+    public void run() {
+        try {
+            Entry entry = mQueue.take();
+            while (entry != END) {
+                final RepoIngestJob job = entry.job;
+                final long batchStart = SystemClock.elapsedRealtime();
+                boolean inTransaction = false;
+                try {
+                    RepoDb.beginTransation();
+                    inTransaction = true;
+                    job.beginBatch();
+                } catch (RuntimeException e) {
+                    // Reported by the fetcher, the entries of the repository are only drained
+                    job.fail(e);
+                }
+
+                int batchSize = 0;
+                do {
+                    job.apply(entry.op);
+                    batchSize++;
+                    entry = mQueue.poll();
+                } while (entry != null && entry.job == job && batchSize < MAX_BATCH_SIZE
+                        && SystemClock.elapsedRealtime() - batchStart < MAX_BATCH_MILLIS);
+
+                if (inTransaction) {
+                    try {
+                        try {
+                            if (job.getError() == null)
+                                RepoDb.setTransactionSuccessful();
+                        } finally {
+                            RepoDb.endTransation();
+                        }
+                    } catch (RuntimeException e) {
+                        job.fail(e);
+                    }
+                }
+                job.endBatch(SystemClock.elapsedRealtime() - batchStart);
+
+                if (entry == null)
+                    entry = mQueue.take();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private static final class Entry {
+        final RepoIngestJob job;
+        final Runnable op;
+
+        Entry(RepoIngestJob job, Runnable op) {
+            this.job = job;
+            this.op = op;
+        }
+    }
+}
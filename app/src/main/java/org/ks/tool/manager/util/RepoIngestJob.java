@@ -0,0 +1,239 @@
+package org.ks.tool.manager.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.ks.tool.manager.repo.Module;
+import org.ks.tool.manager.repo.RepoDb;
+import org.ks.tool.manager.repo.RepoParser.RepoParserCallback;
+import org.ks.tool.manager.repo.Repository;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.ks.tool.manager.MeowCatApplication.TAG;
+
+/**
+ * Receives the parser events of one repository (possibly from several successive
+ * partial files) and passes them on to the {@link RepoDbWriter}, so that downloading
+ * and parsing the next entries overlaps with inserting the previous ones.
+ * <p>
+ * The changes are committed in short transactions of the entries that are ready, rather
+ * than in one transaction for the whole download. This is safe because every module
+ * entry is complete on its own, and the version of the repository only advances once
+ * a file has been parsed completely. An interrupted refresh leaves the previous version,
+ * so the next one applies the same file again.
+ */
+class RepoIngestJob implements RepoParserCallback {
+    private final RepoDbWriter mWriter;
+    private final long mRepoId;
+    private final Repository mRepo;
+    private final AtomicBoolean mHasChanged;
+    private final long mStartTime = SystemClock.elapsedRealtime();
+    private long mFetchTime = -1;
+    // Only accessed by the fetching thread
+    private String mParsedVersion = null;
+    private boolean mHasEntries = false;
+
+    // Only accessed by the writer thread, the error is read once it has finished
+    private Throwable mError = null;
+    private RepoDb.ModuleInserter mInserter;
+    // For full updates, the content hashes of modules which haven't been seen yet
+    private Map<String, String> mExistingHashes = null;
+    private int mInsertCount = 0;
+    private int mDeleteCount = 0;
+    private int mUnchangedCount = 0;
+    private boolean mWritten = false;
+    private final Runnable mEnd = () -> {
+        if (mInserter != null)
+            mInserter.close();
+        mWritten = true;
+    };
+    private long mWriteStart = -1;
+    private long mBusyTime = 0;
+    private int mBatches = 0;
+
+    RepoIngestJob(RepoDbWriter writer, long repoId, Repository repo, AtomicBoolean hasChanged) {
+        mWriter = writer;
+        mRepoId = repoId;
+        mRepo = repo;
+        mHasChanged = hasChanged;
+    }
+
+    /**
+     * Signals that no more entries will follow.
+     */
+    void finish() {
+        mFetchTime = SystemClock.elapsedRealtime() - mStartTime;
+        // Nothing has been parsed, e.g. because the repository hasn't been modified
+        if (mHasEntries)
+            enqueue(mEnd);
+    }
+
+    /**
+     * Returns the error that made the writer stop, or {@code null} if everything
+     * has been written. Only valid after {@link RepoDbWriter#finish()} has returned.
+     */
+    Throwable getError() {
+        return mError;
+    }
+
+    /**
+     * Returns the version of the last repository file that has been parsed completely.
+     */
+    String getParsedVersion() {
+        return mParsedVersion;
+    }
+
+    /**
+     * Returns whether any changes have been parsed and passed on to the writer.
+     */
+    boolean hasEntries() {
+        return mHasEntries;
+    }
+
+    /**
+     * Returns the number of rows that have been inserted. Only valid after
+     * {@link RepoDbWriter#finish()} has returned.
+     */
+    int getRowCount() {
+        return mInserter != null ? mInserter.getRowCount() : 0;
+    }
+
+    /**
+     * Returns the number of transactions the entries have been written in. Only valid
+     * after {@link RepoDbWriter#finish()} has returned.
+     */
+    int getBatchCount() {
+        return mBatches;
+    }
+
+    @Override
+    public void onRepositoryMetadata(Repository repository) {
+        if (!repository.isPartial) {
+            // Only changed modules are written, the others are kept as they are
+            enqueue(() -> mExistingHashes = RepoDb.getModuleHashes(mRepoId));
+        }
+    }
+
+    @Override
+    public void onNewModule(Module module) {
+        // Hash on the parser thread to keep the writer busy with inserting only
+        final String hash = module.getContentHash();
+        enqueue(() -> {
+            if (mExistingHashes != null) {
+                String existingHash = mExistingHashes.remove(module.packageName);
+                if (hash.equals(existingHash)) {
+                    mUnchangedCount++;
+                    return;
+                } else if (existingHash != null) {
+                    RepoDb.deleteModule(mRepoId, module.packageName);
+                }
+            }
+
+            mInserter.insert(module);
+            mHasChanged.set(true);
+            mInsertCount++;
+        });
+    }
+
+    @Override
+    public void onRemoveModule(String packageName) {
+        enqueue(() -> {
+            RepoDb.deleteModule(mRepoId, packageName);
+            mHasChanged.set(true);
+            mDeleteCount++;
+        });
+    }
+
+    @Override
+    public void onCompleted(Repository repository) {
+        mParsedVersion = repository.version;
+        enqueue(() -> {
+            if (mExistingHashes != null) {
+                // Whatever hasn't been listed in a full update has been removed
+                for (String packageName : mExistingHashes.keySet()) {
+                    RepoDb.deleteModule(mRepoId, packageName);
+                    mHasChanged.set(true);
+                    mDeleteCount++;
+                }
+                mExistingHashes = null;
+            }
+
+            if (!repository.isPartial) {
+                RepoDb.updateRepository(mRepoId, repository);
+                mRepo.name = repository.name;
+                mRepo.partialUrl = repository.partialUrl;
+                mRepo.version = repository.version;
+            } else {
+                RepoDb.updateRepositoryVersion(mRepoId, repository.version);
+                mRepo.version = repository.version;
+            }
+
+            Log.i(TAG, String.format(
+                    "RepoLoader -> Updated repository %s to version %s (%d new / %d removed / %d unchanged modules)",
+                    mRepo.url, mRepo.version, mInsertCount, mDeleteCount, mUnchangedCount));
+        });
+    }
+
+    private void enqueue(Runnable op) {
+        mHasEntries = true;
+        try {
+            mWriter.put(this, op);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the database writer", e);
+        }
+    }
+
+    /**
+     * Called by the writer inside of a new transaction, before entries are applied.
+     */
+    void beginBatch() {
+        if (mWriteStart < 0)
+            mWriteStart = SystemClock.elapsedRealtime();
+        if (mInserter == null && mError == null)
+            mInserter = RepoDb.newModuleInserter(mRepoId);
+    }
+
+    /**
+     * Called by the writer to apply an entry. After a failure, the remaining entries
+     * are skipped, and the transaction is rolled back.
+     */
+    void apply(Runnable op) {
+        if (mError != null && op != mEnd)
+            return;
+
+        try {
+            op.run();
+        } catch (Throwable t) {
+            mError = t;
+        }
+    }
+
+    /**
+     * Called by the writer if the entries of this repository can't be written.
+     */
+    void fail(Throwable t) {
+        if (mError == null)
+            mError = t;
+    }
+
+    /**
+     * Called by the writer after a transaction has been committed or rolled back.
+     */
+    void endBatch(long duration) {
+        mBusyTime += duration;
+        mBatches++;
+        if (mInserter == null || !mWritten)
+            return;
+
+        final long writeEnd = SystemClock.elapsedRealtime();
+        final int rows = mInserter.getRowCount();
+        Log.i(TAG, String.format(
+                "RepoLoader -> Timings for %s: fetch+parse %d ms, first write after %d ms, write %d ms in %d transactions (total %d ms)",
+                mRepo.url, mFetchTime, mWriteStart - mStartTime, mBusyTime, mBatches, writeEnd - mStartTime));
+        Log.i(TAG, String.format("RepoLoader -> Inserted %d rows for %s (%d rows/s)",
+                rows, mRepo.url, rows * 1000L / Math.max(mBusyTime, 1)));
+    }
+}
@@ -8,8 +8,11 @@ import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteException;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 import android.widget.Toast;
 
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
@@ -25,14 +28,13 @@ import org.ks.tool.manager.repo.ModuleVersion;
 import org.ks.tool.manager.repo.ReleaseType;
 import org.ks.tool.manager.repo.RepoDb;
 import org.ks.tool.manager.repo.RepoParser;
-import org.ks.tool.manager.repo.RepoParser.RepoParserCallback;
 import org.ks.tool.manager.repo.Repository;
 import org.ks.tool.manager.util.DownloadsUtil.SyncDownloadInfo;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -40,6 +42,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
@@ -48,17 +53,26 @@ import static org.ks.tool.manager.MeowCatApplication.TAG;
 
 public class RepoLoader {
     private static final int UPDATE_FREQUENCY = 24 * 60 * 60 * 1000;
+    private static final int MAX_CONCURRENT_FETCHES = 3;
+    private static final long MAX_REPO_CACHE_SIZE = 8 * 1024 * 1024;
+    private static final int MODULE_CACHE_SIZE = 32;
     private static String DEFAULT_REPOSITORIES;
     private static RepoLoader mInstance = null;
     private final List<RepoListener> mListeners = new CopyOnWriteArrayList<>();
     private final Map<String, ReleaseType> mLocalReleaseTypesCache = new HashMap<>();
+    // Recently loaded modules, cleared whenever the listeners are notified of a reload
+    private final LruCache<String, Module> mModuleCache = new LruCache<>(MODULE_CACHE_SIZE);
+    private final AtomicInteger mCacheHits = new AtomicInteger();
+    private final AtomicInteger mCacheMisses = new AtomicInteger();
     private XposedApp mApp;
     private SharedPreferences mPref;
     private SharedPreferences mModulePref;
     private ConnectivityManager mConMgr;
     private boolean mIsLoading = false;
     private boolean mReloadTriggeredOnce = false;
-    private Map<Long, Repository> mRepositories = null;
+    // Read from the database in the background, see loadRepositories()
+    private final Object mRepositoriesLock = new Object();
+    private volatile Map<Long, Repository> mRepositories = null;
     private ReleaseType mGlobalReleaseType;
     private SwipeRefreshLayout mSwipeRefreshLayout;
 
@@ -70,7 +84,8 @@ public class RepoLoader {
         mModulePref = mApp.getSharedPreferences("module_settings", Context.MODE_PRIVATE);
         mConMgr = (ConnectivityManager) mApp.getSystemService(Context.CONNECTIVITY_SERVICE);
         mGlobalReleaseType = ReleaseType.fromString(XposedApp.getPreferences().getString("release_type_global", "stable"));
-        refreshRepositories();
+        // The instance is created on the UI thread, which must not wait for the database
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(this::loadRepositories);
     }
 
     public static synchronized RepoLoader getInstance() {
@@ -79,18 +94,29 @@ public class RepoLoader {
         return mInstance;
     }
 
+    /**
+     * Reads the configured repositories from the database unless that has happened
+     * already. Must not be called on the UI thread, as it waits for the database to open.
+     */
+    private void loadRepositories() {
+        synchronized (mRepositoriesLock) {
+            if (mRepositories == null)
+                refreshRepositories();
+        }
+    }
+
     private void refreshRepositories() {
-        mRepositories = RepoDb.getRepositories();
+        Map<Long, Repository> repositories = RepoDb.getRepositories();
 
         // Unlikely case (usually only during initial load): DB state doesn't
         // fit to configuration
         boolean needReload = false;
         String[] config = (mPref.getString("repositories", DEFAULT_REPOSITORIES) + "").split("\\|");
-        if (mRepositories.size() != config.length) {
+        if (repositories.size() != config.length) {
             needReload = true;
         } else {
             int i = 0;
-            for (Repository repo : mRepositories.values()) {
+            for (Repository repo : repositories.values()) {
                 if (!repo.url.equals(config[i++])) {
                     needReload = true;
                     break;
@@ -98,14 +124,14 @@ public class RepoLoader {
             }
         }
 
-        if (!needReload)
-            return;
-
-        clear(false);
-        for (String url : config) {
-            RepoDb.insertRepository(url);
+        if (needReload) {
+            deleteRepositories();
+            for (String url : config) {
+                RepoDb.insertRepository(url);
+            }
+            repositories = RepoDb.getRepositories();
         }
-        mRepositories = RepoDb.getRepositories();
+        mRepositories = repositories;
     }
 
     public void setReleaseTypeGlobal(String relTypeString) {
@@ -115,11 +141,12 @@ public class RepoLoader {
 
         mGlobalReleaseType = relType;
 
-        // Updating the latest version for all modules takes a moment
+        // The latest versions are stored for each release type, so this only switches
+        // between them, but it might have to wait for a running reload
         new Thread("DBUpdate") {
             @Override
             public void run() {
-                RepoDb.updateAllModulesLatestVersion();
+                RepoDb.updateGlobalReleaseType(relType);
                 notifyListeners();
             }
         }.start();
@@ -135,12 +162,12 @@ public class RepoLoader {
             mLocalReleaseTypesCache.put(packageName, relType);
         }
 
-        RepoDb.updateModuleLatestVersion(packageName);
+        RepoDb.updateModuleReleaseType(packageName, relType);
         notifyListeners();
     }
 
     @SuppressWarnings("ConstantConditions")
-    private ReleaseType getReleaseTypeLocal(String packageName) {
+    public ReleaseType getReleaseTypeLocal(String packageName) {
         synchronized (mLocalReleaseTypesCache) {
             if (mLocalReleaseTypesCache.containsKey(packageName))
                 return mLocalReleaseTypesCache.get(packageName);
@@ -154,7 +181,37 @@ public class RepoLoader {
     }
 
     public Module getModule(String packageName) {
-        return RepoDb.getModuleByPackageName(packageName);
+        Module module = mModuleCache.get(packageName);
+        if (module == null) {
+            module = RepoDb.getModuleByPackageName(packageName);
+            if (module != null)
+                mModuleCache.put(packageName, module);
+        }
+        return module;
+    }
+
+    /**
+     * Returns the modules with the given package names, loading those that aren't cached
+     * with a few bulk queries. Should not be called on the UI thread.
+     */
+    public Map<String, Module> getModules(Collection<String> packageNames) {
+        Map<String, Module> result = new HashMap<>(packageNames.size());
+        List<String> missing = new ArrayList<>();
+        for (String packageName : packageNames) {
+            Module module = mModuleCache.get(packageName);
+            if (module != null)
+                result.put(packageName, module);
+            else
+                missing.add(packageName);
+        }
+
+        if (!missing.isEmpty()) {
+            for (Module module : RepoDb.getModulesByPackageNames(missing).values()) {
+                mModuleCache.put(module.packageName, module);
+                result.put(module.packageName, module);
+            }
+        }
+        return result;
     }
 
     public ModuleVersion getLatestVersion(Module module) {
@@ -205,7 +262,7 @@ public class RepoLoader {
 
         new Thread("RepositoryReload") {
             public void run() {
-                final List<String> messages = new LinkedList<>();
+                final List<String> messages = Collections.synchronizedList(new LinkedList<>());
                 boolean hasChanged = downloadAndParseFiles(messages);
 
                 mPref.edit().putLong("last_update_check", System.currentTimeMillis()).apply();
@@ -252,16 +309,22 @@ public class RepoLoader {
             if (mIsLoading)
                 return;
 
-            RepoDb.deleteRepositories();
+            deleteRepositories();
             mRepositories = new LinkedHashMap<>(0);
-            DownloadsUtil.clearCache(null);
-            resetLastUpdateCheck();
         }
 
         if (notify)
             notifyListeners();
     }
 
+    private void deleteRepositories() {
+        RepoDb.deleteRepositories();
+        DownloadsUtil.clearCache(null);
+        clearRepoCache();
+        mModuleCache.evictAll();
+        resetLastUpdateCheck();
+    }
+
     public boolean hasModuleUpdates() {
         return RepoDb.hasModuleUpdates();
     }
@@ -270,127 +333,161 @@ public class RepoLoader {
         return RepoDb.getFrameworkUpdateVersion();
     }
 
+    private File getRepoCacheDir() {
+        return new File(mApp.getCacheDir(), "repositories");
+    }
+
+    /**
+     * Returns the file which keeps the last downloaded (still compressed) copy of the
+     * given repository file. As long as it exists, the download is revalidated with the
+     * server instead of repeated.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
     private File getRepoCacheFile(String repo) {
         String filename = "repo_" + HashUtil.md5(repo) + ".xml";
         if (repo.endsWith(".gz"))
             filename += ".gz";
-        return new File(mApp.getCacheDir(), filename);
+        File dir = getRepoCacheDir();
+        dir.mkdirs();
+        return new File(dir, filename);
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    private boolean downloadAndParseFiles(List<String> messages) {
-        // These variables don't need to be atomic, just mutable
-        final AtomicBoolean hasChanged = new AtomicBoolean(false);
-        final AtomicInteger insertCounter = new AtomicInteger();
-        final AtomicInteger deleteCounter = new AtomicInteger();
-
-        for (Entry<Long, Repository> repoEntry : mRepositories.entrySet()) {
-            final long repoId = repoEntry.getKey();
-            final Repository repo = repoEntry.getValue();
-
-            String url = (repo.partialUrl != null && repo.version != null) ? String.format(repo.partialUrl, repo.version) : repo.url;
+    private void clearRepoCache() {
+        File[] files = getRepoCacheDir().listFiles();
+        if (files == null)
+            return;
 
-            File cacheFile = getRepoCacheFile(url);
-            SyncDownloadInfo info = DownloadsUtil.downloadSynchronously(url,
-                    cacheFile);
+        for (File file : files) {
+            file.delete();
+        }
+    }
 
-            Log.i(TAG, String.format(
-                    "RepoLoader -> Downloaded %s with status %d (error: %s), size %d bytes",
-                    url, info.status, info.errorMessage, cacheFile.length()));
+    /**
+     * Deletes the least recently used repository files until the cache fits into
+     * {@link #MAX_REPO_CACHE_SIZE}. Without the file, the next refresh of that
+     * repository is a full download again.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void trimRepoCache() {
+        File[] files = getRepoCacheDir().listFiles();
+        if (files == null)
+            return;
 
-            if (info.status != SyncDownloadInfo.STATUS_SUCCESS) {
-                if (info.errorMessage != null)
-                    messages.add(info.errorMessage);
-                continue;
-            }
+        files = FileUtil.sortByLastModified(files);
+        long size = 0;
+        // The most recently used files are kept
+        for (int i = files.length - 1; i >= 0; i--) {
+            size += files[i].length();
+            if (size > MAX_REPO_CACHE_SIZE)
+                files[i].delete();
+        }
+    }
 
-            InputStream in = null;
-            RepoDb.beginTransation();
-            try {
-                in = new FileInputStream(cacheFile);
-                if (url.endsWith(".gz"))
-                    in = new GZIPInputStream(in);
+    private boolean downloadAndParseFiles(List<String> messages) {
+        final AtomicBoolean hasChanged = new AtomicBoolean(false);
+        loadRepositories();
+        final Map<Long, Repository> repositories = mRepositories;
+        if (repositories.isEmpty())
+            return false;
+
+        final long startTime = SystemClock.elapsedRealtime();
+
+        // Repositories are fetched and parsed in parallel, but a single thread writes
+        // their entries to the database in the order in which they have been parsed
+        final RepoDbWriter writer = new RepoDbWriter();
+        writer.start();
+
+        ExecutorService fetchExecutor = Executors.newFixedThreadPool(
+                Math.min(repositories.size(), MAX_CONCURRENT_FETCHES));
+        List<RepoFetch> fetches = new ArrayList<>(repositories.size());
+        for (Entry<Long, Repository> repoEntry : repositories.entrySet()) {
+            final RepoFetch fetch = new RepoFetch(writer, repoEntry.getKey(), repoEntry.getValue(), hasChanged);
+            fetches.add(fetch);
+            fetchExecutor.execute(fetch::run);
+        }
+        fetchExecutor.shutdown();
+
+        try {
+            fetchExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            writer.finish();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "RepoLoader -> Interrupted while loading repositories", e);
+            fetchExecutor.shutdownNow();
+            writer.interrupt();
+            return hasChanged.get();
+        }
 
-                RepoParser.parse(in, new RepoParserCallback() {
-                    @Override
-                    public void onRepositoryMetadata(Repository repository) {
-                        if (!repository.isPartial) {
-                            RepoDb.deleteAllModules(repoId);
-                            hasChanged.set(true);
-                        }
-                    }
+        for (RepoFetch fetch : fetches) {
+            handleFetchResult(fetch, messages);
+        }
 
-                    @Override
-                    public void onNewModule(Module module) {
-                        RepoDb.insertModule(repoId, module);
-                        hasChanged.set(true);
-                        insertCounter.incrementAndGet();
-                    }
+        if (hasChanged.get()) {
+            RepoDb.updatePreferredModules();
+            RepoDb.updateInstalledModulesUpdates();
+            RepoDb.checkpoint();
+        }
+        trimRepoCache();
 
-                    @Override
-                    public void onRemoveModule(String packageName) {
-                        RepoDb.deleteModule(repoId, packageName);
-                        hasChanged.set(true);
-                        deleteCounter.decrementAndGet();
-                    }
+        Log.i(TAG, String.format("RepoLoader -> Loaded %d repositories in %d ms",
+                fetches.size(), SystemClock.elapsedRealtime() - startTime));
+        Log.d(TAG, String.format("RepoLoader -> Repository cache: %d hits / %d misses",
+                mCacheHits.get(), mCacheMisses.get()));
 
-                    @Override
-                    public void onCompleted(Repository repository) {
-                        if (!repository.isPartial) {
-                            RepoDb.updateRepository(repoId, repository);
-                            repo.name = repository.name;
-                            repo.partialUrl = repository.partialUrl;
-                            repo.version = repository.version;
-                        } else {
-                            RepoDb.updateRepositoryVersion(repoId, repository.version);
-                            repo.version = repository.version;
-                        }
+        return hasChanged.get();
+    }
 
-                        Log.i(TAG, String.format(
-                                "RepoLoader -> Updated repository %s to version %s (%d new / %d removed modules)",
-                                repo.url, repo.version, insertCounter.get(),
-                                deleteCounter.get()));
-                    }
-                });
-
-                RepoDb.setTransactionSuccessful();
-            } catch (SQLiteException e) {
-                XposedApp.runOnUiThread(() -> new MaterialDialog.Builder(DownloadFragment.sActivity)
-                        .title(R.string.restart_needed)
-                        .content(R.string.cache_cleaned)
-                        .onPositive((dialog, which) -> {
-                            Intent i = new Intent(DownloadFragment.sActivity, WelcomeActivity.class);
-                            i.putExtra("fragment", 2);
-
-                            PendingIntent pi = PendingIntent.getActivity(DownloadFragment.sActivity, 0, i, PendingIntent.FLAG_CANCEL_CURRENT);
-
-                            AlarmManager mgr = (AlarmManager) mApp.getSystemService(Context.ALARM_SERVICE);
-                            mgr.set(AlarmManager.RTC, System.currentTimeMillis() + 100, pi);
-                            System.exit(0);
-                        })
-                        .positiveText(R.string.ok)
-                        .canceledOnTouchOutside(false)
-                        .show());
-
-                DownloadsUtil.clearCache(url);
-            } catch (Throwable t) {
-                Log.e(TAG, "RepoLoader -> Cannot load repository from " + url, t);
-                messages.add(mApp.getString(R.string.repo_load_failed, url, t.getMessage()));
-                DownloadsUtil.clearCache(url);
-            } finally {
-                if (in != null)
-                    try {
-                        in.close();
-                    } catch (IOException ignored) {
-                    }
-                cacheFile.delete();
-                RepoDb.endTransation();
-            }
+    private void handleFetchResult(RepoFetch fetch, List<String> messages) {
+        SyncDownloadInfo info = fetch.info;
+        Throwable error = fetch.job.getError();
+        if (error == null)
+            error = fetch.error;
+        if (error == null && info != null)
+            error = info.consumerError;
+
+        String status;
+        if (error != null)
+            status = "failed (" + error + ")";
+        else if (info == null)
+            status = "not fetched";
+        else if (info.status == SyncDownloadInfo.STATUS_NOT_MODIFIED)
+            status = "not modified";
+        else if (info.status == SyncDownloadInfo.STATUS_FAILED)
+            status = "failed (" + info.errorMessage + ")";
+        else
+            status = "updated";
+        Log.i(TAG, String.format("RepoLoader -> Fetched %s in %d ms: %s", fetch.url, fetch.duration, status));
+
+        if (error instanceof SQLiteException) {
+            XposedApp.runOnUiThread(() -> new MaterialDialog.Builder(DownloadFragment.sActivity)
+                    .title(R.string.restart_needed)
+                    .content(R.string.cache_cleaned)
+                    .onPositive((dialog, which) -> {
+                        Intent i = new Intent(DownloadFragment.sActivity, WelcomeActivity.class);
+                        i.putExtra("fragment", 2);
+
+                        PendingIntent pi = PendingIntent.getActivity(DownloadFragment.sActivity, 0, i, PendingIntent.FLAG_CANCEL_CURRENT);
+
+                        AlarmManager mgr = (AlarmManager) mApp.getSystemService(Context.ALARM_SERVICE);
+                        mgr.set(AlarmManager.RTC, System.currentTimeMillis() + 100, pi);
+                        System.exit(0);
+                    })
+                    .positiveText(R.string.ok)
+                    .canceledOnTouchOutside(false)
+                    .show());
+
+            DownloadsUtil.clearCache(fetch.url);
+        } else if (error != null) {
+            Log.e(TAG, "RepoLoader -> Cannot load repository from " + fetch.url, error);
+            messages.add(mApp.getString(R.string.repo_load_failed, fetch.url, error.getMessage()));
+            DownloadsUtil.clearCache(fetch.url);
+        } else if (info != null && info.status == SyncDownloadInfo.STATUS_FAILED && info.errorMessage != null) {
+            messages.add(info.errorMessage);
+        } else if (info != null && info.status == SyncDownloadInfo.STATUS_SUCCESS && fetch.url.equals(fetch.repo.url)) {
+            // Everything has been committed, so later refreshes may skip the file if it's
+            // unchanged. Partial files are never requested twice.
+            DownloadsUtil.saveCacheValidators(fetch.url, info);
         }
-
-        // TODO Set ModuleColumns.PREFERRED for modules which appear in multiple
-        // repositories
-        return hasChanged.get();
     }
 
     public void addListener(RepoListener listener, boolean triggerImmediately) {
@@ -406,11 +503,150 @@ public class RepoLoader {
     }
 
     private void notifyListeners() {
+        mModuleCache.evictAll();
         for (RepoListener listener : mListeners) {
             listener.onRepoReloaded(mInstance);
         }
     }
 
+    private class RepoFetch {
+        final Repository repo;
+        final RepoIngestJob job;
+        String url;
+        SyncDownloadInfo info;
+        // Thrown before or around the download, e.g. while preparing the cache file
+        Throwable error;
+        long duration;
+
+        RepoFetch(RepoDbWriter writer, long repoId, Repository repo, AtomicBoolean hasChanged) {
+            this.repo = repo;
+            this.url = repo.url;
+            this.job = new RepoIngestJob(writer, repoId, repo, hasChanged);
+        }
+
+        void run() {
+            final long startTime = SystemClock.elapsedRealtime();
+            try {
+                if (repo.partialUrl != null && repo.version != null) {
+                    // Continue with a full download unless the partial files were broken
+                    if (!fetchPartialChain() && (info == null || info.consumerError == null))
+                        fetchFull(job.hasEntries());
+                } else {
+                    fetchFull(false);
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                job.finish();
+                duration = SystemClock.elapsedRealtime() - startTime;
+            }
+        }
+
+        /**
+         * Applies successive partial updates, starting with the stored version, until
+         * there are no newer ones. Returns false if a full download should be used instead,
+         * i.e. if the partial files are broken, or if more of them would be needed than
+         * configured or than the full file would cost.
+         */
+        private boolean fetchPartialChain() {
+            final int maxChainLength = XposedApp.getPreferences().getInt("partial_updates",
+                    mApp.getResources().getInteger(R.integer.default_partial_updates));
+            final long fullSize = mPref.getLong("full_size_" + repo.url, -1);
+            long partialSize = 0;
+            // Partial files tend to have similar sizes, so the last one estimates the next one
+            long lastSize = 0;
+            String version = repo.version;
+            int chainLength = 0;
+            while (true) {
+                // Checked before requesting the next file, the full file replaces the
+                // updates applied so far
+                if (chainLength >= maxChainLength || (fullSize > 0 && partialSize + lastSize >= fullSize)) {
+                    Log.i(TAG, String.format("RepoLoader -> Stopping after %d partial updates with %d bytes for %s, continuing with a full update",
+                            chainLength, partialSize, repo.url));
+                    return false;
+                }
+
+                String partialUrl = String.format(repo.partialUrl, version);
+                File cacheFile = getRepoCacheFile(partialUrl);
+                // Partial files are applied only once, so there is no point in revalidating them
+                //noinspection ResultOfMethodCallIgnored
+                cacheFile.delete();
+                SyncDownloadInfo partialInfo = download(partialUrl, cacheFile);
+                long size = cacheFile.length();
+                //noinspection ResultOfMethodCallIgnored
+                cacheFile.delete();
+
+                if (partialInfo.status != SyncDownloadInfo.STATUS_SUCCESS) {
+                    // If a later partial file doesn't exist (yet), the end of the chain has been
+                    // reached. One that has been cut off must be completed by the full file.
+                    if (chainLength == 0 || partialInfo.consumerError != null || size > 0) {
+                        url = partialUrl;
+                        info = partialInfo;
+                        return false;
+                    }
+                    break;
+                }
+
+                url = partialUrl;
+                info = partialInfo;
+                partialSize += size;
+                lastSize = size;
+                chainLength++;
+
+                String newVersion = job.getParsedVersion();
+                if (newVersion == null || newVersion.equals(version))
+                    break;
+                version = newVersion;
+            }
+
+            if (fullSize > 0) {
+                Log.i(TAG, String.format("RepoLoader -> Applied %d partial updates to %s with %d bytes, saving %d bytes compared to a full update",
+                        chainLength, repo.url, partialSize, fullSize - partialSize));
+            } else {
+                Log.i(TAG, String.format("RepoLoader -> Applied %d partial updates to %s with %d bytes",
+                        chainLength, repo.url, partialSize));
+            }
+            return true;
+        }
+
+        @SuppressWarnings("ResultOfMethodCallIgnored")
+        private void fetchFull(boolean afterPartial) {
+            url = repo.url;
+            File cacheFile = getRepoCacheFile(url);
+            // Partial changes that have been written must be reconciled with the full file, which
+            // a "not modified" response would skip. Without any, the cached file still matches.
+            if (afterPartial)
+                cacheFile.delete();
+
+            info = download(url, cacheFile);
+            if (info.status == SyncDownloadInfo.STATUS_NOT_MODIFIED) {
+                // The database is still up-to-date, so parsing has been skipped
+                mCacheHits.incrementAndGet();
+                cacheFile.setLastModified(System.currentTimeMillis());
+            } else {
+                mCacheMisses.incrementAndGet();
+                if (info.status == SyncDownloadInfo.STATUS_SUCCESS)
+                    mPref.edit().putLong("full_size_" + repo.url, cacheFile.length()).apply();
+                else
+                    cacheFile.delete();
+            }
+        }
+
+        private SyncDownloadInfo download(String url, File cacheFile) {
+            // Parse while downloading and let the writer thread insert the modules
+            SyncDownloadInfo info = DownloadsUtil.downloadSynchronously(url, cacheFile, in -> {
+                if (url.endsWith(".gz"))
+                    in = new GZIPInputStream(in);
+                RepoParser.parse(in, job);
+            });
+
+            Log.i(TAG, String.format(
+                    "RepoLoader -> Downloaded %s with status %d (error: %s), size %d bytes",
+                    url, info.status, info.errorMessage, cacheFile.length()));
+            return info;
+        }
+    }
+
     public interface RepoListener {
         /**
          * Called whenever the list of modules from repositories has been
@@ -0,0 +1,141 @@
+package org.ks.tool.manager.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.UiThread;
+
+import com.squareup.picasso.MemoryPolicy;
+import com.squareup.picasso.Picasso;
+
+import org.ks.tool.manager.R;
+import org.ks.tool.manager.XposedApp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.ks.tool.manager.MeowCatApplication.TAG;
+
+/**
+ * Small thumbnails of screenshots, which are generated in the background from the
+ * downloaded image and then kept in memory and on disk, so that they don't have to be
+ * generated again. The downloaded image itself stays in Picasso's disk cache, where it is
+ * found when the screenshot is shown in full size. The least recently used thumbnails are
+ * removed once they exceed {@value #MAX_DISK_SIZE} bytes.
+ */
+public final class ThumbnailCache {
+    private static final String DIR_NAME = "thumbnails";
+    private static final long MAX_DISK_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_MEMORY_SIZE = 4 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+
+    // Only accessed on the UI thread
+    private static final LruCache<String, Bitmap> sMemoryCache = new LruCache<String, Bitmap>(MAX_MEMORY_SIZE) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    private ThumbnailCache() {
+    }
+
+    /**
+     * Shows the thumbnail of the image at {@code url}, scaled down to {@code height} pixels.
+     * The view shows a placeholder until the thumbnail is available. If the view is
+     * reused for another image in the meantime, the result is only cached.
+     */
+    @UiThread
+    public static void load(final ImageView view, final String url, final int height) {
+        final String key = HashUtil.md5(url) + "_" + height;
+        view.setTag(key);
+
+        Bitmap bitmap = sMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageResource(R.drawable.ic_no_image);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            final Bitmap thumbnail = getThumbnail(key, url, height);
+            if (thumbnail == null)
+                return;
+
+            XposedApp.runOnUiThread(() -> {
+                sMemoryCache.put(key, thumbnail);
+                if (key.equals(view.getTag()))
+                    view.setImageBitmap(thumbnail);
+            });
+        });
+    }
+
+    private static Bitmap getThumbnail(String key, String url, int height) {
+        File dir = new File(XposedApp.getInstance().getCacheDir(), DIR_NAME);
+        File file = new File(dir, key + ".jpg");
+        if (file.isFile()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap != null) {
+                //noinspection ResultOfMethodCallIgnored
+                file.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap;
+        try {
+            // The thumbnail is cached here, the full image only on disk by Picasso
+            bitmap = Picasso.get()
+                    .load(url)
+                    .resize(0, height)
+                    .onlyScaleDown()
+                    .memoryPolicy(MemoryPolicy.NO_CACHE, MemoryPolicy.NO_STORE)
+                    .get();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "ThumbnailCache -> Could not load " + url, e);
+            return null;
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            return bitmap;
+
+        File tmpFile = new File(dir, key + ".tmp");
+        try (OutputStream os = new FileOutputStream(tmpFile)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, os);
+        } catch (IOException e) {
+            Log.w(TAG, "ThumbnailCache -> Could not write " + file, e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return bitmap;
+        }
+        if (tmpFile.renameTo(file))
+            trimDiskCache(dir);
+        return bitmap;
+    }
+
+    private static synchronized void trimDiskCache(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        if (size <= MAX_DISK_SIZE)
+            return;
+
+        for (File file : FileUtil.sortByLastModified(files)) {
+            long length = file.length();
+            if (file.delete())
+                size -= length;
+            if (size <= MAX_DISK_SIZE)
+                break;
+        }
+    }
+}
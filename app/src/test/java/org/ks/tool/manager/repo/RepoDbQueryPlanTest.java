@@ -0,0 +1,126 @@
+package org.ks.tool.manager.repo;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ks.tool.manager.repo.RepoDbDefinitions.InstalledModulesColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.InstalledModulesUpdatesColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.ModuleVersionsColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.ModulesColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.MoreInfoColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.RepositoriesColumns;
+import org.ks.tool.manager.repo.RepoDbDefinitions.ScreenshotsColumns;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that the queries of {@link RepoDb} use indexes on a database of the size of
+ * large repositories, where the query planner has a choice between the indexes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = Application.class)
+public class RepoDbQueryPlanTest {
+    private static final int MODULE_COUNT = 20000;
+    private static final int VERSIONS_PER_MODULE = 3;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void createDatabase() {
+        mDb = SQLiteDatabase.create(null);
+        RepoDb.createTables(mDb);
+
+        mDb.beginTransaction();
+        try {
+            mDb.execSQL("INSERT INTO " + RepositoriesColumns.TABLE_NAME + " (" + RepositoriesColumns.URL + ")"
+                    + " VALUES ('https://example.com/a.xml'), ('https://example.com/b.xml')");
+
+            SQLiteStatement insertModule = mDb.compileStatement("INSERT INTO " + ModulesColumns.TABLE_NAME + " ("
+                    + ModulesColumns.REPO_ID + ", " + ModulesColumns.PKGNAME + ", " + ModulesColumns.TITLE + ", "
+                    + ModulesColumns.SUMMARY + ", " + ModulesColumns.AUTHOR + ", " + ModulesColumns.CREATED + ", "
+                    + ModulesColumns.UPDATED + ", " + ModulesColumns.LANGUAGE + ", " + ModulesColumns.PREFERRED
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, 1)");
+            SQLiteStatement insertVersion = mDb.compileStatement("INSERT INTO " + ModuleVersionsColumns.TABLE_NAME + " ("
+                    + ModuleVersionsColumns.MODULE_ID + ", " + ModuleVersionsColumns.NAME + ", "
+                    + ModuleVersionsColumns.CODE + ", " + ModuleVersionsColumns.RELTYPE + ") VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < MODULE_COUNT; i++) {
+                insertModule.bindLong(1, 1 + i % 2);
+                insertModule.bindString(2, "com.example.module" + i);
+                insertModule.bindString(3, "Xposed module " + i);
+                insertModule.bindString(4, "Summary of module " + i);
+                insertModule.bindString(5, "Author " + i % 100);
+                insertModule.bindLong(6, i);
+                insertModule.bindLong(7, MODULE_COUNT + i);
+                insertModule.bindLong(8, i % ModuleLanguage.values().length);
+                long moduleId = insertModule.executeInsert();
+
+                for (int v = 0; v < VERSIONS_PER_MODULE; v++) {
+                    insertVersion.bindLong(1, moduleId);
+                    insertVersion.bindString(2, "1." + v);
+                    insertVersion.bindLong(3, v);
+                    insertVersion.bindLong(4, v % ReleaseType.values().length);
+                    insertVersion.executeInsert();
+                }
+
+                if (i % 10 == 0) {
+                    mDb.execSQL("INSERT INTO " + MoreInfoColumns.TABLE_NAME + " (" + MoreInfoColumns.MODULE_ID + ", "
+                            + MoreInfoColumns.LABEL + ", " + MoreInfoColumns.VALUE + ") VALUES (?, 'Source', 'https://example.com')",
+                            new Object[]{moduleId});
+                    mDb.execSQL("INSERT INTO " + ScreenshotsColumns.TABLE_NAME + " (" + ScreenshotsColumns.MODULE_ID + ", "
+                            + ScreenshotsColumns.URL + ") VALUES (?, 'https://example.com/screenshot.png')",
+                            new Object[]{moduleId});
+                }
+                if (i % 100 == 0) {
+                    mDb.execSQL("INSERT INTO " + InstalledModulesColumns.TABLE_NAME + " (" + InstalledModulesColumns.PKGNAME + ", "
+                            + InstalledModulesColumns.VERSION_CODE + ", " + InstalledModulesColumns.VERSION_NAME + ") VALUES (?, 0, '1.0')",
+                            new Object[]{"com.example.module" + i});
+                }
+            }
+            insertModule.close();
+            insertVersion.close();
+
+            // The versions of each module have consecutive ids, the last one is the latest
+            mDb.execSQL("UPDATE " + ModulesColumns.TABLE_NAME + " SET "
+                    + ModulesColumns.LATEST_STABLE + " = " + ModulesColumns._ID + " * " + VERSIONS_PER_MODULE + ", "
+                    + ModulesColumns.LATEST_BETA + " = " + ModulesColumns._ID + " * " + VERSIONS_PER_MODULE + ", "
+                    + ModulesColumns.LATEST_EXPERIMENTAL + " = " + ModulesColumns._ID + " * " + VERSIONS_PER_MODULE);
+            mDb.execSQL("INSERT INTO " + InstalledModulesUpdatesColumns.TABLE_NAME + " ("
+                    + InstalledModulesUpdatesColumns.PKGNAME + ", " + InstalledModulesUpdatesColumns.MODULE_ID + ", "
+                    + InstalledModulesUpdatesColumns.INSTALLED_CODE + ", " + InstalledModulesUpdatesColumns.INSTALLED_NAME + ", "
+                    + InstalledModulesUpdatesColumns.LATEST_ID + ", " + InstalledModulesUpdatesColumns.LATEST_CODE + ", "
+                    + InstalledModulesUpdatesColumns.LATEST_NAME + ") VALUES ('com.example.module0', 1, 0, '1.0', 3, 2, '1.2')");
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void closeDatabase() {
+        mDb.close();
+    }
+
+    @Test
+    public void queriesDontScanTables() {
+        for (ReleaseType relType : ReleaseType.values()) {
+            for (RepoDb.CheckedQuery query : RepoDb.getCheckedQueries(relType)) {
+                Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+                int detailIndex = c.getColumnIndexOrThrow("detail");
+                while (c.moveToNext()) {
+                    String detail = c.getString(detailIndex);
+                    assertFalse("Full scan (" + detail + ") for " + relType + " in " + query.name + ": " + query.sql,
+                            query.isFullScan(detail));
+                }
+                c.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.ks.tool.manager.util;
+
+import android.content.Context;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ks.tool.manager.XposedApp;
+import org.ks.tool.manager.repo.RepoDb;
+import org.ks.tool.manager.repo.RepoParser;
+import org.ks.tool.manager.repo.Repository;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a recorded repository file through the parser, the ingest job and the database
+ * writer, as a refresh does it without the network.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, application = XposedApp.class)
+public class RepoIngestJobTest {
+    private static final String REPO_URL = "https://example.com/full.xml.gz";
+    // Contents of full.xml.gz
+    private static final String REPO_VERSION = "1600000000";
+    private static final int MODULE_COUNT = 1500;
+    private static final int VERSIONS_PER_MODULE = 3;
+    private static final int MORE_INFO_PER_MODULE = 1;
+    private static final int SCREENSHOT_COUNT = MODULE_COUNT / 5;
+
+    @Test
+    public void writesFullRepository() throws Exception {
+        // Matches the configuration, so RepoLoader, which is needed for the local release
+        // types, doesn't replace the repository when it loads them in the background
+        XposedApp.getInstance().getSharedPreferences("repo", Context.MODE_PRIVATE).edit()
+                .putString("repositories", REPO_URL).commit();
+        RepoDb.insertRepository(REPO_URL);
+        RepoLoader.getInstance();
+        Entry<Long, Repository> repoEntry = RepoDb.getRepositories().entrySet().iterator().next();
+        final long repoId = repoEntry.getKey();
+
+        RepoDbWriter writer = new RepoDbWriter();
+        writer.start();
+        AtomicBoolean hasChanged = new AtomicBoolean(false);
+        RepoIngestJob job = new RepoIngestJob(writer, repoId, repoEntry.getValue(), hasChanged);
+
+        final long start = System.nanoTime();
+        try (InputStream in = new GZIPInputStream(getClass().getResourceAsStream("/full.xml.gz"))) {
+            RepoParser.parse(in, job);
+        }
+        job.finish();
+        writer.finish();
+        final long millis = Math.max((System.nanoTime() - start) / 1000000, 1);
+
+        assertNull(job.getError());
+        assertTrue(hasChanged.get());
+        assertEquals(MODULE_COUNT * (1 + VERSIONS_PER_MODULE + MORE_INFO_PER_MODULE) + SCREENSHOT_COUNT,
+                job.getRowCount());
+        assertEquals(MODULE_COUNT, RepoDb.getModuleHashes(repoId).size());
+        Map<Long, Repository> repositories = RepoDb.getRepositories();
+        assertEquals(REPO_VERSION, repositories.get(repoId).version);
+
+        // Besides the modules, the existing hashes are read, the repository is updated
+        // and the inserter is closed
+        final int entries = MODULE_COUNT + 3;
+        final int minBatches = (entries + RepoDbWriter.MAX_BATCH_SIZE - 1) / RepoDbWriter.MAX_BATCH_SIZE;
+        assertTrue("Only " + job.getBatchCount() + " transactions for " + entries + " entries",
+                job.getBatchCount() >= minBatches);
+
+        System.out.println(String.format("Wrote %d rows in %d transactions in %d ms (%d rows/s)",
+                job.getRowCount(), job.getBatchCount(), millis, job.getRowCount() * 1000L / millis));
+    }
+}